@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class CrafterTradeHandler extends TradeHandler {
     private static final Logger logger = Logger.getLogger(CrafterTradeHandler.class.getName());
@@ -291,6 +292,14 @@ public class CrafterTradeHandler extends TradeHandler {
             }
         }
 
+        if (donating != DonationType.giving) {
+            int jobCount = (int)Stream.of(myWindow.getItems()).filter(i -> !i.isCoin()).count();
+            int remaining = workBook.remainingCapacity();
+            if (jobCount > remaining) {
+                trade.creatureOne.getCommunicator().sendSafeServerMessage(creature.getName() + " says 'I only have room for " + remaining + " more " + (remaining == 1 ? "order" : "orders") + " at the moment.'");
+            }
+        }
+
         int length = offerWindow.getItems().length;
         if (length > 0) {
             trade.creatureOne.getCommunicator().sendSafeServerMessage(creature.getName() + " says 'I cannot improve " + (length == 1 ? "that item.'" : "those items.'"));
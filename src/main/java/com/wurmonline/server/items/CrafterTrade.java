@@ -13,14 +13,10 @@ import com.wurmonline.server.economy.Shop;
 import com.wurmonline.server.players.Player;
 import mod.wurmunlimited.npcs.CrafterMod;
 import mod.wurmunlimited.npcs.CrafterTemplate;
-import mod.wurmunlimited.npcs.Job;
 import mod.wurmunlimited.npcs.WorkBook;
 
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class CrafterTrade extends Trade {
     private static final Logger logger = Logger.getLogger(CrafterTrade.class.getName());
@@ -143,12 +139,12 @@ public class CrafterTrade extends Trade {
                     }
 
 
+                    // Exact lengths rather than remainingCapacity, as a job that does not fit is lost after payment.
                     //noinspection ConstantConditions
                     CrafterTradeHandler handler = (CrafterTradeHandler)creatureTwo.getTradeHandler();
-                    List<String> requiredSpace = Stream.of(getTradingWindow(4).getItems()).filter(i -> !i.isCoin()).map(i -> Job.toString(creatureOne.getWurmId(),
-                            i, handler.getTargetQL(i), handler.isMailOnDone(), handler.getTraderBuyPriceForItem(i) + (handler.isMailOnDone() ? CrafterMod.mailPrice() : 0), false))
-                    .collect(Collectors.toList());
-                    if (!workBook.hasEnoughSpaceFor(requiredSpace)) {
+                    long mailPrice = handler.isMailOnDone() ? CrafterMod.mailPrice() : 0;
+                    if (!workBook.hasEnoughSpaceFor(creatureOne.getWurmId(), getTradingWindow(4).getItems(), handler::getTargetQL,
+                            i -> handler.getTraderBuyPriceForItem(i) + mailPrice)) {
                         creatureOne.getCommunicator().sendNormalServerMessage(creatureTwo.getName() + " says, 'I already have too many orders to be working on.  Sorry for the inconvenience.'", (byte)3);
                         return false;
                     }
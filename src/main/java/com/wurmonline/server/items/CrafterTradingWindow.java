@@ -21,7 +21,10 @@ import com.wurmonline.shared.util.MaterialUtilities;
 import mod.wurmunlimited.npcs.CrafterAIData;
 import mod.wurmunlimited.npcs.CrafterMod;
 import mod.wurmunlimited.npcs.CrafterTemplate;
+import mod.wurmunlimited.npcs.Job;
 import mod.wurmunlimited.npcs.WorkBook;
+import mod.wurmunlimited.npcs.db.CrafterDatabase;
+import mod.wurmunlimited.npcs.db.JobEvent;
 
 import java.io.IOException;
 import java.util.*;
@@ -477,6 +480,8 @@ public class CrafterTradingWindow extends TradingWindow implements MiscConstants
                                 switch (handler.typeOfDonating()) {
                                     case donating:
                                         workBook.addDonation(item);
+                                        if (workBook.getCrafterType().hasSkillToImprove(item))
+                                            data.prefetch(item);
                                         break;
                                     case giving:
                                         data.tools.addGivenTool(item);
@@ -484,9 +489,12 @@ public class CrafterTradingWindow extends TradingWindow implements MiscConstants
                                     case not:
                                         data.log("Adding job to Crafter - " + item.getName() + " to " + handler.getTargetQL(item));
                                         data.log(handler.getSelectedOptions());
-                                        workBook.addJob(windowOwner.getWurmId(), item, handler.getTargetQL(item), handler.isMailOnDone(), watcher.getTradeHandler().getTraderBuyPriceForItem(item) + (handler.isMailOnDone() ? CrafterMod.mailPrice() : 0));
+                                        Job job = workBook.addJob(windowOwner.getWurmId(), item, handler.getTargetQL(item), handler.isMailOnDone(), watcher.getTradeHandler().getTraderBuyPriceForItem(item) + (handler.isMailOnDone() ? CrafterMod.mailPrice() : 0));
+                                        CrafterDatabase.recordJobEvent(JobEvent.accepted, watcher, job);
+                                        data.prefetch(item);
                                         break;
                                 }
+                                data.wake();
                             } catch (WorkBook.WorkBookFull e) {
                                 // This should never happen because it should be cleared by CrafterTrade.makeTrade().
                                 windowOwner.getCommunicator().sendAlertServerMessage("An error occurred with the order.  Please report.");
@@ -511,7 +519,11 @@ public class CrafterTradingWindow extends TradingWindow implements MiscConstants
                             if (data.tools.isTool(item)) {
                                 data.tools.removeGivenTool(item);
                             } else {
-                                workBook.removeJob(item);
+                                Job job = workBook.getJob(item);
+                                if (job != null) {
+                                    CrafterDatabase.recordJobEvent(JobEvent.collected, windowOwner, job);
+                                    workBook.removeJob(item);
+                                }
                             }
                         }
                     }
@@ -119,7 +119,7 @@ public class CrafterGMSetSkillLevelsQuestion extends CrafterQuestionExtension {
                             crafter.getInventory().insertItem(refund.getItem());
 
                         refund.mailToCustomer();
-                        refund.refundCustomer();
+                        refund.refundCustomer(crafter);
                         workBook.removeJob(refund.getItem());
                     }
                 } catch (NoSuchTemplateException | FailedException e) {
@@ -106,7 +106,7 @@ public class CrafterManagementQuestion extends CrafterQuestionExtension {
 
                     Item item = job.getItem();
                     job.mailToCustomer();
-                    job.refundCustomer();
+                    job.refundCustomer(crafter);
                     workBook.removeJob(item);
                     noJobs = false;
                     break;
@@ -234,7 +234,7 @@ public class CrafterManagementQuestion extends CrafterQuestionExtension {
                 try {
                     for (Job job : WorkBook.getWorkBookFromWorker(crafter)) {
                         job.mailToCustomer();
-                        job.refundCustomer();
+                        job.refundCustomer(crafter);
                     }
                 } catch (WorkBook.NoWorkBookOnWorker e) {
                     logger.warning("Could not find Work Book while dismissing Crafter, customers were not compensated.");
@@ -244,14 +244,8 @@ public class CrafterManagementQuestion extends CrafterQuestionExtension {
                     e.printStackTrace();
                 }
 
-                if (CrafterMod.allowSavedSkills() && writ != null) {
-                    try {
-                        CrafterDatabase.saveSkillsFor(crafter, writ);
-                    } catch (CrafterDatabase.FailedToSaveSkills e) {
-                        logger.warning("An error occurred when attempting to save Crafter skills.  Skills were not saved.");
-                        e.printStackTrace();
-                    }
-                }
+                if (CrafterMod.allowSavedSkills() && writ != null)
+                    CrafterDatabase.saveSkillsFor(crafter, writ);
 
                 CrafterAI.assignedForges.remove(crafter);
                 crafter.destroy();
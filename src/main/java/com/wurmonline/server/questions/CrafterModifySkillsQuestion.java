@@ -110,7 +110,7 @@ public class CrafterModifySkillsQuestion extends CrafterQuestionExtension {
                         crafter.getInventory().insertItem(refund.getItem());
 
                     refund.mailToCustomer();
-                    refund.refundCustomer();
+                    refund.refundCustomer(crafter);
                     workBook.removeJob(refund.getItem());
                 }
             } catch (NoSuchTemplateException | FailedException e) {
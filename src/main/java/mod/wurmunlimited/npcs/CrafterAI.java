@@ -12,43 +12,38 @@ import com.wurmonline.server.creatures.ai.CreatureAIData;
 import com.wurmonline.server.creatures.ai.PathTile;
 import com.wurmonline.server.items.Item;
 import com.wurmonline.server.players.Player;
+import com.wurmonline.server.skills.Skills;
 import org.jetbrains.annotations.NotNull;
 
-import java.lang.reflect.Field;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.logging.Logger;
+import java.util.*;
 
 public class CrafterAI extends CreatureAI {
-    private static final Logger logger = Logger.getLogger(CrafterAI.class.getName());
     static final Set<Creature> allCrafters = new HashSet<>();
     public static final Map<Creature, Item> assignedForges = new HashMap<>();
-    private Field tradeHandler;
+    // Ids of every crafter, so skill gains can be checked without finding the creature each belongs to.  Skills are
+    // matched by id rather than instance, as a creature's skills may be replaced after it is added.
+    private static final LongIdSet crafterSkills = new LongIdSet();
 
-    public CrafterAI() {
-        try {
-            tradeHandler = Creature.class.getDeclaredField("tradeHandler");
-        } catch (NoSuchFieldException e) {
-            throw new RuntimeException(e);
-        }
-        tradeHandler.setAccessible(true);
+    static void addCrafterSkills(Creature crafter) {
+        crafterSkills.add(crafter.getWurmId());
+    }
+
+    static void removeCrafterSkills(Creature crafter) {
+        crafterSkills.remove(crafter.getWurmId());
+    }
+
+    static boolean isCrafterSkills(Skills skills) {
+        return crafterSkills.contains(skills.getId());
     }
 
     @Override
     public boolean pollCreature(@NotNull Creature c, long delta) {
         boolean isDead = super.pollCreature(c, delta);
-        try {
-            if (tradeHandler != null) {
-                CrafterTradeHandler handler = (CrafterTradeHandler)tradeHandler.get(c);
-                if (handler != null)
-                    handler.balance();
-            }
-        } catch (IllegalAccessException e) {
-            tradeHandler = null;
-            logger.warning("TradeHandler field not found, this really shouldn't happen.  Future warnings will be suppressed.");
-            e.printStackTrace();
+        // The handler is only set during a trade.
+        if (c.isTrading()) {
+            CrafterTradeHandler handler = (CrafterTradeHandler)ServerAccessors.getTradeHandler(c);
+            if (handler != null)
+                handler.balance();
         }
 
         if (!isDead && !c.isTrading() && !c.isFighting()) {// TODO - Stamina, including letting crafter put items in forge whilst waiting for stamina. && c.getStatus().calcStaminaPercent() == 100) {
@@ -58,7 +53,7 @@ public class CrafterAI extends CreatureAI {
                 CrafterMod.getCrafterLogger(c).info(action.getActionString());
             } catch (NoSuchActionException ignored) {
                 CrafterAIData data = ((CrafterAIData)c.getCreatureAIData());
-                if (data.canAction)
+                if (data.canAction && !data.isAsleep())
                     data.sendNextAction();
             }
         }
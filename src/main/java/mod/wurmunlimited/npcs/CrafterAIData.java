@@ -22,12 +22,12 @@ import com.wurmonline.server.zones.VolaTile;
 import com.wurmonline.server.zones.Zones;
 import com.wurmonline.shared.constants.ItemMaterials;
 import mod.wurmunlimited.npcs.db.CrafterDatabase;
+import mod.wurmunlimited.npcs.db.JobEvent;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.sql.SQLException;
+import java.time.Clock;
 import java.util.*;
 import java.util.logging.Logger;
 
@@ -35,6 +35,7 @@ public class CrafterAIData extends CreatureAIData {
     private Logger logger = Logger.getLogger(CrafterAIData.class.getName());
     // glowingFromTheHeat is 3500.
     static final short targetTemperature = 4000;
+    static Clock clock = Clock.systemUTC();
     private WorkBook workbook;
     private Creature crafter;
     private boolean atWorkLocation;
@@ -42,22 +43,38 @@ public class CrafterAIData extends CreatureAIData {
     public final Tools tools = new Tools();
     // Nearby equipment
     private Item forge;
+    // Job worked on by the last action, the item quality may have changed since.
+    private Job lastJob;
+    private final ForgeHeat forgeHeat = new ForgeHeat();
 
     public boolean canAction = true;
+    // Tool writes made whilst finding the tools for the last improve.
+    private int lastImproveItemWrites = 0;
+    // When idle_crafters is set, the time a crafter with nothing to work on next checks its work book.  0 whilst awake.
+    private long sleepUntil = 0;
+    // Set when the metal jobs or the forge contents may have changed, so forge_pipeline_jobs only preheats when needed.
+    private boolean preheatNeeded = true;
+    // Time the job being worked on is expected to be hot, preheating waits until then rather than checking every poll.
+    private long preheatAfter = 0;
+    // The server does not let more than this many items be put in a container.
+    private static final int MAX_FORGE_ITEMS = 100;
 
     public class Tools {
         private final Map<Integer, Item> tools = new HashMap<>();
-        private final Map<Integer, List<Item>> givenTools = new HashMap<>();
+        private final Set<Item> toolItems = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Map<Integer, GivenTools> givenTools = new HashMap<>();
+        // Changes to tools that were saved to the database, as each one writes the item.
+        private int itemWrites = 0;
 
         private Tools() {}
 
         public void addGivenTool(Item item) {
-            List<Item> t = givenTools.computeIfAbsent(item.getTemplateId(), ArrayList::new);
-            if (t.contains(item)) {
+            GivenTools t = givenTools.computeIfAbsent(item.getTemplateId(), k -> new GivenTools());
+            if (!t.add(item)) {
                 logger.warning("Donated tools list already contained that tool.");
                 return;
             }
-            t.add(item);
+            wake();
             try {
                 CrafterDatabase.addGivenToolFor(crafter, item);
             } catch (SQLException e) {
@@ -68,7 +85,7 @@ public class CrafterAIData extends CreatureAIData {
 
         public void removeGivenTool(Item item) {
             try {
-                List<Item> items = givenTools.get(item.getTemplateId());
+                GivenTools items = givenTools.get(item.getTemplateId());
                 if (items != null) {
                     items.remove(item);
                 }
@@ -81,7 +98,7 @@ public class CrafterAIData extends CreatureAIData {
 
         @Nullable
         Item getPreferredTool(int templateId, float targetQL) {
-            List<Item> options = givenTools.get(templateId);
+            GivenTools options = givenTools.get(templateId);
             if (options == null || options.isEmpty()) {
                 Item tool = tools.get(templateId);
                 if (tool != null) {
@@ -92,21 +109,7 @@ public class CrafterAIData extends CreatureAIData {
 
             // Donated tool > targetQL
             // Donated tool < targetQL + 20
-            Item tool = null;
-            if (options.size() == 1) {
-                Item maybeTool = options.get(0);
-                float ql = maybeTool.getCurrentQualityLevel();
-                if (ql > targetQL && ql <= targetQL + 20) {
-                    tool = maybeTool;
-                }
-            } else {
-                for (Item item : options) {
-                    float ql = item.getCurrentQualityLevel();
-                    if ((tool == null  || ql > tool.getCurrentQualityLevel()) && ql > targetQL && ql <= targetQL + 20) {
-                        tool = item;
-                    }
-                }
-            }
+            Item tool = options.choose(targetQL);
 
             if (tool == null) {
                 tool = tools.get(templateId);
@@ -118,6 +121,7 @@ public class CrafterAIData extends CreatureAIData {
 
             if (tool.getDamage() > 0f) {
                 tool.repair(crafter, (short)0, tool.getDamage());
+                ++itemWrites;
             }
 
             return tool;
@@ -146,36 +150,58 @@ public class CrafterAIData extends CreatureAIData {
                 item.setMaterial(ItemMaterials.MATERIAL_WOOD_BIRCH);
             }
 
-            tools.put(templateId, item);
+            putTool(templateId, item);
             return item;
         }
 
+        // Only writes what has changed since the tool was last used, usually nothing for anything but lumps and water.
         private void repairTool(Item item, float ql) {
             ql += 10;
             if (ql > 100)
                 ql = 100;
             if (item.isBodyPart())
                 return;
-            if (item.getDamage() != 0)
+            if (item.getDamage() != 0) {
                 item.setDamage(0);
-            if (item.getQualityLevel() < ql || item.getQualityLevel() > 100)
+                ++itemWrites;
+            }
+            if (item.getQualityLevel() < ql || item.getQualityLevel() > 100) {
                 item.setQualityLevel(ql);
+                ++itemWrites;
+            }
+
+            int weight;
             if (item.isLiquid())
-                item.setWeight(5000, false);
+                weight = 5000;
             else if (item.isCombine() && item.isMetal())
-                item.setWeight(1000, false);
+                weight = 1000;
             else
-                item.setWeight(item.getTemplate().getWeightGrams(), false);
+                weight = item.getTemplate().getWeightGrams();
+            if (item.getWeightGrams() < weight) {
+                item.setWeight(weight, false);
+                ++itemWrites;
+            }
+        }
+
+        int getItemWrites() {
+            return itemWrites;
         }
 
         public boolean isTool(Item item) {
-            if (tools.containsValue(item)) {
+            if (toolItems.contains(item)) {
                 return true;
             }
-            List<Item> t = givenTools.get(item.getTemplateId());
+            GivenTools t = givenTools.get(item.getTemplateId());
             return t != null && t.contains(item);
         }
 
+        private void putTool(int templateId, Item item) {
+            Item previous = tools.put(templateId, item);
+            if (previous != null)
+                toolItems.remove(previous);
+            toolItems.add(item);
+        }
+
         private void assignItems() {
             for (Item item : crafter.getInventory().getItems()) {
                 if (WorkBook.isWorkBook(item)) {
@@ -214,72 +240,27 @@ public class CrafterAIData extends CreatureAIData {
                 if (item.getTemplateId() == ItemList.barrelSmall) {
                     item = item.getFirstContainedItem();
                     if (item != null && item.getTemplateId() == ItemList.water)
-                        tools.put(ItemList.water, item);
+                        putTool(ItemList.water, item);
                     continue;
                 }
 
                 if (givenToolIds.contains(item.getWurmId())) {
-                    givenTools.computeIfAbsent(item.getTemplateId(), ArrayList::new).add(item);
+                    givenTools.computeIfAbsent(item.getTemplateId(), k -> new GivenTools()).add(item);
                 } else {
-                    tools.put(item.getTemplateId(), item);
+                    putTool(item.getTemplateId(), item);
                 }
             }
 
             try {
                 Item hand = crafter.getBody().getBodyPart(13);
-                tools.put(hand.getTemplateId(), hand);
+                putTool(hand.getTemplateId(), hand);
             } catch (NoSpaceException e) {
                 logger.warning("Could not find hand item.");
             }
         }
 
         public Iterable<Item> getGivenTools() {
-            return new Iterable<Item>() {
-                @NotNull
-                @Override
-                public Iterator<Item> iterator() {
-                    return new Iterator<Item>() {
-                        private final Iterator<List<Item>> tools = givenTools.values().iterator();
-                        private Iterator<Item> current = null;
-
-                        @Override
-                        public boolean hasNext() {
-                            if (current == null || !current.hasNext()) {
-                                return moveOn();
-                            }
-
-                            return false;
-                        }
-
-                        @Override
-                        public Item next() {
-                            if (current == null || !current.hasNext()) {
-                                moveOn();
-                            }
-
-                            return current.next();
-                        }
-
-                        private boolean moveOn() {
-                            if (!tools.hasNext()) {
-                                return false;
-                            }
-
-                            current = tools.next().iterator();
-
-                            while (!current.hasNext()) {
-                                if (!tools.hasNext()) {
-                                    return false;
-                                }
-
-                                current = tools.next().iterator();
-                            }
-
-                            return true;
-                        }
-                    };
-                }
-            };
+            return () -> givenTools.values().stream().flatMap(t -> t.getItems().stream()).iterator();
         }
     }
 
@@ -293,6 +274,7 @@ public class CrafterAIData extends CreatureAIData {
         this.crafter = crafter;
         logger = CrafterMod.getCrafterLogger(crafter);
         CrafterAI.allCrafters.add(crafter);
+        CrafterAI.addCrafterSkills(crafter);
         if (crafter.getInventory().getItemCount() != 0)
             tools.assignItems();
         if (workbook != null && workbook.isForgeAssigned()) {
@@ -343,6 +325,7 @@ public class CrafterAIData extends CreatureAIData {
     public void setForge(@Nullable Item item) {
         forge = item;
         workbook.setForge(item);
+        wake();
 
         if (item == null) {
             CrafterAI.assignedForges.remove(crafter);
@@ -388,6 +371,10 @@ public class CrafterAIData extends CreatureAIData {
         return null;
     }
 
+    int getLastImproveItemWrites() {
+        return lastImproveItemWrites;
+    }
+
     public WorkBook getWorkBook() {
         return workbook;
     }
@@ -416,6 +403,30 @@ public class CrafterAIData extends CreatureAIData {
         return null;
     }
 
+    /**
+     * Call when something has changed that may give a sleeping crafter work to do.
+     */
+    public void wake() {
+        sleepUntil = 0;
+        preheatNeeded = true;
+        preheatAfter = 0;
+    }
+
+    private void sleep() {
+        if (CrafterMod.idleCrafters())
+            sleepUntil = clock.millis() + CrafterMod.getIdleWakeMillis();
+    }
+
+    boolean isAsleep() {
+        if (sleepUntil == 0)
+            return false;
+        if (clock.millis() >= sleepUntil) {
+            sleepUntil = 0;
+            return false;
+        }
+        return true;
+    }
+
     void sendNextAction() {
         if (!canAction)
             return;
@@ -446,14 +457,28 @@ public class CrafterAIData extends CreatureAIData {
                 }
             }
         }
+        if (lastJob != null) {
+            workbook.reschedule(lastJob);
+            lastJob = null;
+        }
         if (workbook.todo() == 0 && workbook.donationsTodo() == 0) {
             if (workbook.isForgeAssigned() && forge.isOnFire()) {
                 forge.setTemperature((short)0);
             }
+            forgeHeat.clear();
+            sleep();
             return;
         }
 
-        for (Job job : workbook) {
+        // Heating has no event to wake on, so a crafter waiting on the forge only sleeps if predict_forge_heat is set,
+        // and then only until the first parked job is expected to be hot enough.
+        boolean heating = false;
+        long now = clock.millis();
+        long nextHeatedAt = Long.MAX_VALUE;
+        if (forge != null && preheatNeeded && now >= preheatAfter && CrafterMod.getForgePipelineJobs() > 0)
+            preheat(now);
+
+        for (Job job : workbook.scheduledJobs()) {
             if (!job.isDone()) {
                 Item item = job.item;
                 if (!item.isRepairable()) {
@@ -471,6 +496,7 @@ public class CrafterAIData extends CreatureAIData {
                     float currentSkill = (float)crafter.getSkills().getSkillOrLearn(skillNum).getKnowledge();
 
                     if (CrafterMod.destroyDonationItem(currentSkill, job.item.getQualityLevel())) {
+                        preheatNeeded = true;
                         workbook.removeJob(job.item);
                         Items.destroyItem(job.item.getWurmId());
                         continue;
@@ -482,6 +508,7 @@ public class CrafterAIData extends CreatureAIData {
                         if (forge != null && forge.getItems().contains(item))
                             crafter.getInventory().insertItem(item);
                         workbook.setDone(job, crafter);
+                        preheatNeeded = true;
                         logger.info(item.getName() + " is done.");
                         // In case a Job is removed at the wrong time.
                         return;
@@ -492,6 +519,9 @@ public class CrafterAIData extends CreatureAIData {
                     try {
                         BehaviourDispatcher.action(crafter, crafter.getCommunicator(), -10, item.getWurmId(), Actions.REPAIR);
                         logger.info("Repairing " + item.getName());
+                        lastJob = job;
+                        // Damaged items are not preheated, so this one will be once repaired.
+                        preheatNeeded = true;
                     } catch (NoSuchPlayerException | NoSuchCreatureException | NoSuchItemException | NoSuchBehaviourException | NoSuchWallException | FailedException e) {
                         logger.warning(crafter.getName() + " (" + crafter.getWurmId() + ") could not repair " + item.getName() + " (" + item.getWurmId() + ").  Reason follows:");
                         e.printStackTrace();
@@ -503,56 +533,32 @@ public class CrafterAIData extends CreatureAIData {
                     if (forge == null)
                         continue;
 
-                    if (!forge.isOnFire()) {
-                        try {
-                            Method setFire = MethodsItems.class.getDeclaredMethod("setFire", Creature.class, Item.class);
-                            setFire.setAccessible(true);
-                            setFire.invoke(null, crafter, forge);
-                            logger.info("Lighting forge");
-                        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                            logger.warning("Could not light forge.  Reason follows:");
-                            e.printStackTrace();
-                        }
+                    if (job.heatedAt > now) {
+                        heating = true;
+                        nextHeatedAt = Math.min(nextHeatedAt, job.heatedAt);
+                        continue;
                     }
-                    forge.setTemperature((short)10000);
 
-                    // Clear out ash for Ash produce mod.
-                    for (Item it : forge.getAllItems(true)) {
-                        if (it.getTemplateId() == ItemList.ash) {
-                            Items.destroyItem(it.getWurmId());
-                        }
-                    }
+                    lightForge();
 
-                    int lumpId = MethodsItems.getImproveTemplateId(item);
-                    Item lump = tools.getPreferredTool(lumpId, job.item.getCurrentQualityLevel());
-                    if (lump == null) {
-                        try {
-                            lump = tools.createMissingItem(lumpId);
-                        } catch (NoSuchTemplateException | FailedException e) {
-                            logger.warning("Could not create required improving item (template id - " + lumpId + ").  Reason follows:");
-                            e.printStackTrace();
-                            continue;
-                        }
-                    }
-                    if (!forge.getItems().contains(lump)) {
-                        forge.insertItem(lump);
-                        // Bug where item is put on surface when inserted.
-                        lump.setParentId(forge.getWurmId(), forge.isOnSurface());
-                        logger.info("Put the " + lump.getName() + " in the forge");
-                    }
-                    if (!forge.getItems().contains(item)) {
-                        forge.insertItem(item);
-                        // Bug where item is put on surface when inserted.
-                        item.setParentId(forge.getWurmId(), forge.isOnSurface());
-                        logger.info("Put the " + item.getName() + " in the forge");
-                    }
+                    Item lump = getLump(item);
+                    if (lump == null)
+                        continue;
+                    putInForge(lump);
+                    putInForge(item);
 
                     if (item.getTemperature() < CrafterAIData.targetTemperature) {
                         logger.info("Waiting for item to heat up.");
+                        heating = true;
+                        if (CrafterMod.predictForgeHeat()) {
+                            job.heatedAt = Math.max(forgeHeat.readyAt(item, now), forgeHeat.readyAt(lump, now));
+                            nextHeatedAt = Math.min(nextHeatedAt, job.heatedAt);
+                        }
                         continue;
                     }
                 }
 
+                int itemWrites = tools.itemWrites;
                 int toolTemplateId = MethodsItems.getItemForImprovement(item.getMaterial(), item.creationState);
                 if (toolTemplateId == -10) {
                     toolTemplateId = MethodsItems.getImproveTemplateId(item);
@@ -579,8 +585,14 @@ public class CrafterAIData extends CreatureAIData {
                 if (tool.isCombine() && tool.isMetal()) {
                     if (tool.getTemperature() >= CrafterAIData.targetTemperature) {
                         crafter.getInventory().insertItem(tool);
+                        preheatNeeded = true;
                     } else {
                         logger.info("Waiting for lump to heat up.");
+                        heating = true;
+                        if (CrafterMod.predictForgeHeat()) {
+                            job.heatedAt = forgeHeat.readyAt(tool, now);
+                            nextHeatedAt = Math.min(nextHeatedAt, job.heatedAt);
+                        }
                         continue;
                     }
                 }
@@ -599,8 +611,14 @@ public class CrafterAIData extends CreatureAIData {
                         logger.info("Improving " + item.getName() + " - QL " + item.getQualityLevel() + "/" + job.targetQL + "/" + CrafterMod.getMaxItemQL() + " - Skill " + skill + "/" + workbook.getSkillCap() + "/" + CrafterMod.getSkillCap());
                     }
 
+                    lastImproveItemWrites = tools.itemWrites - itemWrites;
                     BehaviourDispatcher.action(crafter, crafter.getCommunicator(), tool.getWurmId(), item.getWurmId(), Actions.IMPROVE);
                     logger.info("Improving " + item.getName() + " with " + tool.getName());
+                    if (!job.improveStarted) {
+                        job.improveStarted = true;
+                        CrafterDatabase.recordJobEvent(JobEvent.first_improve, crafter, job);
+                    }
+                    lastJob = job;
                 } catch (NoSuchPlayerException | NoSuchCreatureException | NoSuchItemException | NoSuchBehaviourException | NoSuchWallException | FailedException e) {
                     logger.warning(crafter.getName() + " (" + crafter.getWurmId() + ") could not improve " + item.getName() + " (" + item.getWurmId() + ") with " + tool.getName() + " (" + tool.getWurmId() + ").  Reason follows:");
                     e.printStackTrace();
@@ -610,15 +628,140 @@ public class CrafterAIData extends CreatureAIData {
                 return;
             }
         }
+
+        if (!heating)
+            sleep();
+        else if (nextHeatedAt != Long.MAX_VALUE)
+            sleepUntil = nextHeatedAt;
+    }
+
+    /**
+     * Creates or repairs everything the item could need for improving, so the crafter does not have to stop to make a
+     * new lump or tool part way through the work book.  Called when a job or donation is accepted, if
+     * prefetch_improve_items is set.
+     */
+    public void prefetch(Item item) {
+        if (!CrafterMod.prefetchImproveItems() || workbook == null || !item.isRepairable())
+            return;
+
+        // Each creation state of the item needs a different tool, -10 meaning the improve material, e.g. a lump.
+        Set<Integer> templateIds = new HashSet<>();
+        for (byte state = 0; state <= 5; ++state) {
+            int templateId = MethodsItems.getItemForImprovement(item.getMaterial(), state);
+            templateIds.add(templateId == -10 ? MethodsItems.getImproveTemplateId(item) : templateId);
+        }
+        templateIds.remove(-10);
+        templateIds.remove(ItemList.bodyHand);
+
+        float ql = item.getCurrentQualityLevel();
+        for (int templateId : templateIds) {
+            if (tools.getPreferredTool(templateId, ql) == null) {
+                try {
+                    tools.createMissingItem(templateId);
+                    logger.info("Prepared " + ItemTemplateFactory.getInstance().getTemplate(templateId).getName() + " for " + item.getName());
+                } catch (NoSuchTemplateException | FailedException e) {
+                    logger.warning("Could not create required improving item (template id - " + templateId + ").  Reason follows:");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void lightForge() {
+        if (!forge.isOnFire()) {
+            try {
+                ServerAccessors.setFire(crafter, forge);
+                logger.info("Lighting forge");
+            } catch (RuntimeException e) {
+                logger.warning("Could not light forge.  Reason follows:");
+                e.printStackTrace();
+            }
+        }
+        forge.setTemperature((short)10000);
+
+        // Clear out ash for Ash produce mod.
+        for (Item it : forge.getAllItems(true)) {
+            if (it.getTemplateId() == ItemList.ash) {
+                Items.destroyItem(it.getWurmId());
+            }
+        }
+    }
+
+    @Nullable
+    private Item getLump(Item item) {
+        int lumpId = MethodsItems.getImproveTemplateId(item);
+        Item lump = tools.getPreferredTool(lumpId, item.getCurrentQualityLevel());
+        if (lump == null) {
+            try {
+                lump = tools.createMissingItem(lumpId);
+            } catch (NoSuchTemplateException | FailedException e) {
+                logger.warning("Could not create required improving item (template id - " + lumpId + ").  Reason follows:");
+                e.printStackTrace();
+            }
+        }
+        return lump;
+    }
+
+    private void putInForge(Item item) {
+        if (!forge.getItems().contains(item)) {
+            forge.insertItem(item);
+            // Bug where item is put on surface when inserted.
+            item.setParentId(forge.getWurmId(), forge.isOnSurface());
+            logger.info("Put the " + item.getName() + " in the forge");
+        }
+    }
+
+    // Puts the items for the metal job being worked on, and the forge_pipeline_jobs after it, in the forge along with
+    // their lumps, so they heat up whilst the crafter is busy.  Nothing changes whilst the job being worked on is
+    // waiting for predict_forge_heat, so it is left until then.  Stops once the forge has no room for the next item.
+    private void preheat(long now) {
+        int toHeat = CrafterMod.getForgePipelineJobs() + 1;
+        boolean lit = false;
+        for (Job job : workbook.scheduledJobs()) {
+            if (toHeat == 0)
+                break;
+            Item item = job.item;
+            if (job.isDone() || !item.isMetal() || !item.isRepairable() || item.getDamage() > 0.0f)
+                continue;
+            if (job.isDonation() && !workbook.getCrafterType().hasSkillToImprove(item))
+                continue;
+            if (!lit && job.heatedAt > now) {
+                preheatAfter = job.heatedAt;
+                return;
+            }
+
+            --toHeat;
+            if (!lit) {
+                lightForge();
+                lit = true;
+            }
+            Item lump = getLump(item);
+            if (lump != null) {
+                if (!hasForgeSpaceFor(lump))
+                    break;
+                putInForge(lump);
+            }
+            if (!hasForgeSpaceFor(item))
+                break;
+            putInForge(item);
+        }
+        preheatNeeded = false;
+    }
+
+    private boolean hasForgeSpaceFor(Item item) {
+        if (forge.getItems().contains(item))
+            return true;
+        return forge.getItems().size() < MAX_FORGE_ITEMS && forge.getFreeVolume() >= item.getVolume();
     }
 
     private void returnErrorJob(Job job) {
+        preheatNeeded = true;
         Item item = job.item;
         if (forge != null && forge.getItems().contains(item))
             crafter.getInventory().insertItem(item);
         job.mailToCustomer();
         try {
-            job.refundCustomer();
+            job.refundCustomer(crafter);
         } catch (NoSuchTemplateException | FailedException e) {
             logger.warning("Could not create refund package while dismissing Crafter, customers were not compensated.");
             e.printStackTrace();
@@ -11,35 +11,34 @@ import com.wurmonline.server.items.*;
 import com.wurmonline.server.players.Player;
 import com.wurmonline.server.questions.CrafterHireQuestion;
 import com.wurmonline.server.questions.CreatureCreationQuestion;
-import com.wurmonline.server.questions.Question;
-import com.wurmonline.server.skills.Skill;
 import com.wurmonline.server.skills.SkillList;
 import com.wurmonline.server.skills.Skills;
 import com.wurmonline.server.villages.Village;
 import com.wurmonline.shared.constants.IconConstants;
 import com.wurmonline.shared.constants.ItemMaterials;
 import javassist.*;
-import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import mod.wurmunlimited.npcs.db.CrafterDatabase;
 import org.gotti.wurmunlimited.modloader.classhooks.HookManager;
 import org.gotti.wurmunlimited.modloader.interfaces.*;
 import org.gotti.wurmunlimited.modsupport.ItemTemplateBuilder;
 import org.gotti.wurmunlimited.modsupport.actions.ModActions;
 import org.gotti.wurmunlimited.modsupport.creatures.ModCreatures;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.*;
+import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.*;
 import java.util.stream.Collectors;
 
-public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configurable, ItemTemplatesCreatedListener, ServerStartedListener, PlayerMessageListener {
+public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configurable, ItemTemplatesCreatedListener, ServerStartedListener, ServerPollListener, PlayerMessageListener {
     private static final Logger logger = Logger.getLogger(CrafterMod.class.getName());
     public static final String dbName = "crafter.db";
     public static CrafterMod mod;
@@ -74,15 +73,27 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
     private static boolean singleSkill = false;
     private static boolean canChangeSkill = true;
     private static float maxItemQL = 99.99999f;
-    private static final List<Byte> restrictedMaterials = new ArrayList<>();
+    private static final MaterialList restrictedMaterials = new MaterialList();
     private static ThreatenOption threatening = ThreatenOption.disabled;
     private static boolean send_event_messages = true;
     private static boolean allowSavedSkills = true;
+    private static JobStorageOption jobStorage = JobStorageOption.inscription;
+    private static boolean writeBehindWorkBooks = false;
+    private static boolean compactWorkBookPages = false;
+    private static boolean asyncDatabaseWrites = false;
+    private static boolean recordJobEvents = false;
+    private static boolean idleCrafters = false;
+    private static int idleWakeSeconds = 60;
+    private static boolean predictForgeHeat = false;
+    private static int forgePipelineJobs = 0;
+    private static boolean prefetchImproveItems = false;
+    private static JobOrderOption jobOrder = JobOrderOption.fifo;
     private static final Map<Creature, Logger> crafterLoggers = new HashMap<>();
     private Properties properties;
     public static Path globalRestrictionsPath = Paths.get("mods", "crafter", "global_restrictions");
     public static Path globalBlockedItemsPath = Paths.get("mods", "crafter", "blocked_items");
-    public static final Set<Integer> blockedItems = new HashSet<>();
+    private static final TemplateIdSet blockedItemIds = new TemplateIdSet();
+    public static final Set<Integer> blockedItems = blockedItemIds;
 
     private enum OutputOption {
         save,
@@ -102,6 +113,17 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
         village_alliance
     }
 
+    public enum JobStorageOption {
+        inscription,
+        database
+    }
+
+    public enum JobOrderOption {
+        fifo,
+        lowest_ql_gap,
+        highest_price
+    }
+
     public CrafterMod() {
         mod = this;
     }
@@ -172,6 +194,10 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
         return restrictedMaterials.size() != 0 && !restrictedMaterials.contains(material);
     }
 
+    static boolean isGloballyBlockedItem(int templateId) {
+        return blockedItemIds.contains(templateId);
+    }
+
     public static boolean materialsRestrictedGlobally() {
         return restrictedMaterials.size() > 0;
     }
@@ -188,6 +214,50 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
         return allowSavedSkills;
     }
 
+    public static boolean storeJobsInDatabase() {
+        return jobStorage == JobStorageOption.database;
+    }
+
+    public static boolean writeBehindWorkBooks() {
+        return writeBehindWorkBooks;
+    }
+
+    public static boolean compactWorkBookPages() {
+        return compactWorkBookPages;
+    }
+
+    public static boolean asyncDatabaseWrites() {
+        return asyncDatabaseWrites;
+    }
+
+    public static boolean recordJobEvents() {
+        return recordJobEvents;
+    }
+
+    public static boolean idleCrafters() {
+        return idleCrafters;
+    }
+
+    public static long getIdleWakeMillis() {
+        return idleWakeSeconds * 1000L;
+    }
+
+    public static boolean predictForgeHeat() {
+        return predictForgeHeat;
+    }
+
+    public static int getForgePipelineJobs() {
+        return forgePipelineJobs;
+    }
+
+    public static boolean prefetchImproveItems() {
+        return prefetchImproveItems;
+    }
+
+    public static JobOrderOption getJobOrder() {
+        return jobOrder;
+    }
+
     public static boolean allowThreatening(Creature one, Creature two) {
         switch (threatening) {
             default:
@@ -242,6 +312,32 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
         return option;
     }
 
+    private JobStorageOption parseJobStorageOption(String value) {
+        JobStorageOption option = jobStorage;
+        if (value != null && value.length() > 0) {
+            try {
+                option = JobStorageOption.valueOf(value);
+            } catch (IllegalArgumentException e) {
+                logger.warning("Invalid JobStorageOption - " + value);
+                e.printStackTrace();
+            }
+        }
+        return option;
+    }
+
+    private JobOrderOption parseJobOrderOption(String value) {
+        JobOrderOption option = jobOrder;
+        if (value != null && value.length() > 0) {
+            try {
+                option = JobOrderOption.valueOf(value);
+            } catch (IllegalArgumentException e) {
+                logger.warning("Invalid JobOrderOption - " + value);
+                e.printStackTrace();
+            }
+        }
+        return option;
+    }
+
     private boolean getOption(String option, boolean _default) {
         String val = properties.getProperty(option);
         if (val != null && val.length() > 0) {
@@ -316,6 +412,17 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
         threatening = parseThreateningOption(properties.getProperty("threatening"));
         send_event_messages = getOption("send_event_messages", send_event_messages);
         allowSavedSkills = getOption("allow_saved_skills", allowSavedSkills);
+        jobStorage = parseJobStorageOption(properties.getProperty("job_storage"));
+        writeBehindWorkBooks = getOption("write_behind_work_books", writeBehindWorkBooks);
+        jobOrder = parseJobOrderOption(properties.getProperty("job_order"));
+        compactWorkBookPages = getOption("compact_work_book_pages", compactWorkBookPages);
+        asyncDatabaseWrites = getOption("async_database_writes", asyncDatabaseWrites);
+        recordJobEvents = getOption("record_job_events", recordJobEvents);
+        idleCrafters = getOption("idle_crafters", idleCrafters);
+        idleWakeSeconds = Math.max(1, getOption("idle_wake_seconds", idleWakeSeconds));
+        predictForgeHeat = getOption("predict_forge_heat", predictForgeHeat);
+        forgePipelineJobs = Math.max(0, getOption("forge_pipeline_jobs", forgePipelineJobs));
+        prefetchImproveItems = getOption("prefetch_improve_items", prefetchImproveItems);
 
         skillPrices.put(SkillList.SMITHING_BLACKSMITHING, getOption("blacksmithing", 1.0f));
         skillPrices.put(SkillList.GROUP_SMITHING_WEAPONSMITHING, getOption("weaponsmithing", 1.0f));
@@ -432,74 +539,36 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
     public void init() {
         HookManager manager = HookManager.getInstance();
 
-        manager.registerHook("com.wurmonline.server.creatures.Creature",
-                "getTradeHandler",
-                "()Lcom/wurmonline/server/creatures/TradeHandler;",
-                () -> this::getTradeHandler);
-
-        // Listen for messages.
-        manager.registerHook("com.wurmonline.server.creatures.CreatureCommunicator",
-                "sendNormalServerMessage",
-                "(Ljava/lang/String;)V",
-                () -> this::logMessages);
-
-        // Block forge opening if assigned to a crafter.
-        manager.registerHook("com.wurmonline.server.behaviours.BehaviourDispatcher",
-                "action",
-                "(Lcom/wurmonline/server/creatures/Creature;Lcom/wurmonline/server/creatures/Communicator;JJS)V",
-                () -> this::behaviourDispatcher);
-
-        manager.registerHook("com.wurmonline.server.economy.Economy",
-                "getShop",
-                "(Lcom/wurmonline/server/creatures/Creature;Z)Lcom/wurmonline/server/economy/Shop;",
-                () -> this::getShop);
-
+        // Hooks called for every creature, message or action are inserted in preInit instead.
         manager.registerHook("com.wurmonline.server.items.TradingWindow",
                 "stopLoggers",
                 "()V",
                 () -> this::stopLoggers);
 
-        manager.registerHook("com.wurmonline.server.items.TradingWindow",
-                "swapOwners",
-                "()V",
-                () -> this::swapOwners);
-
-        manager.registerHook("com.wurmonline.server.skills.Skill",
-                "alterSkill",
-                "(DZFZD)V",
-                () -> this::alterSkill);
-
         manager.registerHook("com.wurmonline.server.questions.QuestionParser",
                 "parseCreatureCreationQuestion",
                 "(Lcom/wurmonline/server/questions/CreatureCreationQuestion;)V",
                 () -> this::creatureCreation);
 
-        manager.registerHook("com.wurmonline.server.items.Item",
-                "willLeaveServer",
-                "(ZZZ)Z",
-                () -> this::willLeaveServer);
-
-        manager.registerHook("com.wurmonline.server.MessageServer",
-                "broadCastAction",
-                "(Ljava/lang/String;Lcom/wurmonline/server/creatures/Creature;Lcom/wurmonline/server/creatures/Creature;IZ)V",
-                () -> this::broadcastAction);
-
         FaceSetter.init(manager);
         ModelSetter.init(manager, new CrafterWearItems());
         DestroyHandler.addListener(creature -> {
             Creature crafter = (Creature)creature;
             if (CrafterTemplate.isCrafter(crafter)) {
+                CrafterAI.removeCrafterSkills(crafter);
                 try {
                     WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
                     workBook.iterator().forEachRemaining(job -> {
                         try {
                             job.mailToCustomer();
-                            job.refundCustomer();
+                            job.refundCustomer(crafter);
                         } catch (NoSuchTemplateException | FailedException e) {
                             logger.warning("Error when destroying crafter and attempting refund.");
                             e.printStackTrace();
                         }
                     });
+                    workBook.removeStoredJobs();
+                    workBook.discardChanges();
                     Shop shop = Economy.getEconomy().getShop(crafter);
                     long ownerId = shop.getOwnerId();
                     Creature owner = Creatures.getInstance().getCreature(ownerId);
@@ -550,6 +619,43 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
             creatureOne.setModifiers(Modifier.clear(creatureOne.getModifiers(), Modifier.FINAL));
             CtField creatureTwo = trade.getDeclaredField("creatureTwo");
             creatureTwo.setModifiers(Modifier.clear(creatureTwo.getModifiers(), Modifier.FINAL));
+
+            // Calls inserted straight into the server methods, rather than hooks that box every argument and call the
+            // original through reflection.  Each one returns early only for crafters or crafter contracts.
+            pool.get("com.wurmonline.server.creatures.Creature")
+                    .getMethod("getTradeHandler", "()Lcom/wurmonline/server/creatures/TradeHandler;")
+                    .insertBefore("{ com.wurmonline.server.creatures.TradeHandler crafterHandler = mod.wurmunlimited.npcs.CrafterMod.getCrafterTradeHandler(this, this.tradeHandler);" +
+                                  "if (crafterHandler != null) { this.tradeHandler = crafterHandler; return crafterHandler; } }");
+
+            // Listen for messages.
+            pool.get("com.wurmonline.server.creatures.CreatureCommunicator")
+                    .getMethod("sendNormalServerMessage", "(Ljava/lang/String;)V")
+                    .insertBefore("mod.wurmunlimited.npcs.CrafterMod.logMessage(this.creature, $1);");
+
+            // Block forge opening if assigned to a crafter.
+            pool.get("com.wurmonline.server.behaviours.BehaviourDispatcher")
+                    .getMethod("action", "(Lcom/wurmonline/server/creatures/Creature;Lcom/wurmonline/server/creatures/Communicator;JJS)V")
+                    .insertBefore("if (mod.wurmunlimited.npcs.CrafterMod.blockForgeAction($1, $4, $5)) return;");
+
+            pool.get("com.wurmonline.server.economy.Economy")
+                    .getMethod("getShop", "(Lcom/wurmonline/server/creatures/Creature;Z)Lcom/wurmonline/server/economy/Shop;")
+                    .insertBefore("if (mod.wurmunlimited.npcs.CrafterTemplate.isCrafter($1)) return mod.wurmunlimited.npcs.CrafterMod.getCrafterShop($1, $2, shops, SHOPS_RW_LOCK);");
+
+            tradingWindow.getMethod("swapOwners", "()V")
+                    .insertBefore("mod.wurmunlimited.npcs.CrafterMod.swapCrafterOwners(this, this.windowowner, this.watcher);");
+
+            pool.get("com.wurmonline.server.skills.Skill")
+                    .getMethod("alterSkill", "(DZFZD)V")
+                    .insertBefore("$1 = mod.wurmunlimited.npcs.CrafterMod.crafterSkillGain(this.parent, $1, $3);");
+
+            pool.get("com.wurmonline.server.items.Item")
+                    .getMethod("willLeaveServer", "(ZZZ)Z")
+                    .insertBefore("{ Boolean contractLeaves = mod.wurmunlimited.npcs.CrafterMod.contractWillLeaveServer(this, $1);" +
+                                  "if (contractLeaves != null) return contractLeaves.booleanValue(); }");
+
+            pool.get("com.wurmonline.server.MessageServer")
+                    .getMethod("broadCastAction", "(Ljava/lang/String;Lcom/wurmonline/server/creatures/Creature;Lcom/wurmonline/server/creatures/Creature;IZ)V")
+                    .insertBefore("if (mod.wurmunlimited.npcs.CrafterMod.hideCrafterAction($2)) return;");
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -559,6 +665,13 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
 
     @Override
     public void onServerStarted() {
+        ServerAccessors.init();
+        try {
+            CrafterDatabase.preloadGivenTools();
+        } catch (SQLException e) {
+            logger.warning("Could not preload given tools, they will be loaded on first use.");
+            e.printStackTrace();
+        }
         faceSetter = new FaceSetter(CrafterTemplate::isCrafter, dbName);
         modelSetter = new ModelSetter(CrafterTemplate::isCrafter, dbName);
 
@@ -612,6 +725,13 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
         }
     }
 
+    @Override
+    public void onServerPoll() {
+        WorkBook.flushAll();
+        CrafterDatabase.writeWaitingSkills();
+        CrafterDatabase.writeWaitingJobEvents();
+    }
+
     static Logger getCrafterLogger(Creature crafter) {
         Logger log = crafterLoggers.get(crafter);
         if (log == null) {
@@ -639,87 +759,74 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
         return log;
     }
 
-    private Object logMessages(Object o, Method method, Object[] args) throws InvocationTargetException, IllegalAccessException, NoSuchFieldException {
-        if (output != OutputOption.none) {
-            Field creatureField = CreatureCommunicator.class.getDeclaredField("creature");
-            creatureField.setAccessible(true);
-            Creature creature = (Creature)creatureField.get(o);
-            if (creature.getTemplate().getTemplateId() == CrafterTemplate.getTemplateId()) {
-                getCrafterLogger(creature).info("Received - " + args[0]);
-            }
+    public static void logMessage(Creature creature, String message) {
+        if (output != OutputOption.none && creature.getTemplate().getTemplateId() == CrafterTemplate.getTemplateId()) {
+            getCrafterLogger(creature).info("Received - " + message);
         }
-        return method.invoke(o, args);
     }
 
     Object stopLoggers(Object o, Method method, Object[] args) throws InvocationTargetException, IllegalAccessException {
         CrafterTradingWindow.stopLoggers();
+        // Called during server shutdown, so write any work book changes still waiting for the next poll.
+        WorkBook.flushAll();
+        CrafterDatabase.close();
         return method.invoke(o, args);
     }
 
-    Object behaviourDispatcher(Object o, Method method, Object[] args) throws Throwable {
-        Creature creature = (Creature)args[0];
-        if ((Short)args[4] == Actions.OPEN) {
+    /**
+     * Returns true if the action should not go ahead.
+     */
+    public static boolean blockForgeAction(Creature creature, long target, short action) {
+        if (action == Actions.OPEN) {
             try {
-                Item maybeForge = Items.getItem((Long)args[3]);
+                Item maybeForge = Items.getItem(target);
                 if (maybeForge.getTemplateId() == ItemList.forge && CrafterAI.assignedForges.containsValue(maybeForge)) {
                     if (creature.getPower() >= 2)
                         creature.getCommunicator().sendAlertServerMessage("This forge is assigned to a Crafter.  Do not change the contents of the forge unless you know what you are doing.");
                     else {
                         creature.getCommunicator().sendAlertServerMessage("The crafter blocks you from accessing the forge.");
-                        return null;
+                        return true;
                     }
                 }
             } catch (NoSuchItemException ignored) {}
         }
 
-        try {
-            return method.invoke(o, args);
-        } catch (InvocationTargetException e) {
-            throw e.getCause();
-        }
+        return false;
     }
 
-    private Object getShop(Object o, Method method, Object[] args) throws IllegalAccessException, NoSuchFieldException, InvocationTargetException {
-        Creature creature = (Creature)args[0];
-        boolean destroying = (boolean)args[1];
-        if (creature.getTemplate().getTemplateId() == CrafterTemplate.getTemplateId()) {
-            Shop tm;
-            ReentrantReadWriteLock SHOPS_RW_LOCK = ReflectionUtil.getPrivateField(null, Economy.class.getDeclaredField("SHOPS_RW_LOCK"));
-            SHOPS_RW_LOCK.readLock().lock();
+    /**
+     * Called from Economy.getShop for crafters only, with the Economy shops and their lock.
+     */
+    public static Shop getCrafterShop(Creature creature, boolean destroying, Map<Long, Shop> shops, ReentrantReadWriteLock shopsLock) {
+        Shop tm;
+        shopsLock.readLock().lock();
 
-            try {
-                Map<Long, Shop> shops = ReflectionUtil.getPrivateField(Economy.getEconomy(), Economy.class.getDeclaredField("shops"));
-                tm = shops.get(creature.getWurmId());
-            } finally {
-                SHOPS_RW_LOCK.readLock().unlock();
-            }
-
-            if (!destroying && tm == null) {
-                tm = Economy.getEconomy().createShop(creature.getWurmId());
-            }
+        try {
+            tm = shops.get(creature.getWurmId());
+        } finally {
+            shopsLock.readLock().unlock();
+        }
 
-            return tm;
+        if (!destroying && tm == null) {
+            tm = Economy.getEconomy().createShop(creature.getWurmId());
         }
 
-        return method.invoke(o, args);
+        return tm;
     }
 
-    Object getTradeHandler(Object o, Method method, Object[] args) throws NoSuchFieldException, InvocationTargetException, IllegalAccessException, ClassNotFoundException, NoSuchMethodException, InstantiationException {
-        Creature creature = (Creature)o;
+    /**
+     * Returns the trade handler for a crafter, creating it if current is null.  Returns null for anything else, so the
+     * normal trade handler is used.
+     */
+    @Nullable
+    public static TradeHandler getCrafterTradeHandler(Creature creature, @Nullable TradeHandler current) {
         if (creature.getTemplate().getTemplateId() != CrafterTemplate.getTemplateId())
-            return method.invoke(o, args);
-
-        Field tradeHandler = Creature.class.getDeclaredField("tradeHandler");
-        tradeHandler.setAccessible(true);
-        TradeHandler handler = (TradeHandler)tradeHandler.get(o);
+            return null;
+        if (current != null)
+            return current;
 
-        if (handler == null) {
-            Class<?> ServiceHandler = Class.forName("com.wurmonline.server.creatures.CrafterTradeHandler");
-            //noinspection RedundantCast
-            handler = (TradeHandler)ServiceHandler.getConstructor(Creature.class, CrafterTrade.class).newInstance(creature, (CrafterTrade)creature.getTrade());
-            tradeHandler.set(o, handler);
-        }
-        return handler;
+        //noinspection RedundantCast
+        return ServerAccessors.newCrafterTradeHandler(creature, (CrafterTrade)creature.getTrade());
     }
 
     @Override
@@ -793,8 +900,7 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
         return false;
     }
 
-    Object swapOwners(Object o, Method method, Object[] args) throws InvocationTargetException, IllegalAccessException {
-        TradingWindow window = (TradingWindow)o;
+    public static void swapCrafterOwners(TradingWindow window, Creature windowOwner, Creature watcher) {
         for (Item item : window.getItems()) {
             if (item.getTemplateId() == contractTemplateId) {
                 long data = item.getData();
@@ -804,46 +910,36 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
                         if (crafter.getTemplate().getTemplateId() == CrafterTemplate.getTemplateId()) {
                             Shop shop = Economy.getEconomy().getShop(crafter);
                             if (shop != null) {
-                                Creature windowOwner = ReflectionUtil.getPrivateField(window, TradingWindow.class.getDeclaredField("windowowner"));
-                                Creature watcher = ReflectionUtil.getPrivateField(window, TradingWindow.class.getDeclaredField("watcher"));
-
                                 shop.setOwner(watcher.getWurmId());
                                 watcher.getCommunicator().sendNormalServerMessage("You are now in control of " + crafter.getName() + ".");
                                 windowOwner.getCommunicator().sendNormalServerMessage("You are no longer in control of " + crafter.getName() + ".");
                             }
                         }
-                    } catch (NoSuchPlayerException | NoSuchCreatureException | NoSuchFieldException e) {
+                    } catch (NoSuchPlayerException | NoSuchCreatureException e) {
                         logger.warning("Error when trying to transfer crafter contract (for " + data + ") to another player.");
                         e.printStackTrace();
                     }
                 }
             }
         }
-
-        return method.invoke(o, args);
     }
 
-    Object alterSkill(Object o, Method method, Object[] args) throws InvocationTargetException, IllegalAccessException, NoSuchFieldException {
-        if (crafterSkillGainRate != 1f) {
-            Skill skill = (Skill)o;
-            Creature creature = Server.getInstance().getCreatureOrNull(
-                    ((Skills)ReflectionUtil.getPrivateField(skill, Skill.class.getDeclaredField("parent"))).getId());
-
-            if (creature != null && CrafterTemplate.isCrafter(creature)) {
-                double advanceMultiplicator = (double)args[0];
-                float times = (float)args[2];
-                advanceMultiplicator /= times * Servers.localServer.getSkillGainRate();
-                advanceMultiplicator *= times * crafterSkillGainRate;
-                args[0] = advanceMultiplicator;
-            }
+    /**
+     * Returns the advance multiplicator for a skill gain, swapping the server skill gain rate for crafter_skill_gain_rate
+     * if parent belongs to a crafter.
+     */
+    public static double crafterSkillGain(Skills parent, double advanceMultiplicator, float times) {
+        if (crafterSkillGainRate != 1f && CrafterAI.isCrafterSkills(parent)) {
+            advanceMultiplicator /= times * Servers.localServer.getSkillGainRate();
+            advanceMultiplicator *= times * crafterSkillGainRate;
         }
 
-        return method.invoke(o, args);
+        return advanceMultiplicator;
     }
 
-    Object creatureCreation(Object o, Method method, Object[] args) throws InvocationTargetException, IllegalAccessException, NoSuchFieldException {
+    Object creatureCreation(Object o, Method method, Object[] args) throws InvocationTargetException, IllegalAccessException {
         CreatureCreationQuestion question = (CreatureCreationQuestion)args[0];
-        Properties answers = ReflectionUtil.getPrivateField(question, Question.class.getDeclaredField("answer"));
+        Properties answers = ServerAccessors.getAnswers(question);
         try {
             String templateIndexString = answers.getProperty("data1");
             String name = answers.getProperty("cname");
@@ -853,7 +949,7 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
                 answers.setProperty("name", name);
             if (templateIndexString != null) {
                 int templateIndex = Integer.parseInt(templateIndexString);
-                List<CreatureTemplate> templates = ReflectionUtil.getPrivateField(question, CreatureCreationQuestion.class.getDeclaredField("cretemplates"));
+                List<CreatureTemplate> templates = ServerAccessors.getCreatureTemplates(question);
                 CreatureTemplate template = templates.get(templateIndex);
 
                 if (template.getTemplateId() == CrafterTemplate.getTemplateId()) {
@@ -872,11 +968,13 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
         return method.invoke(o, args);
     }
 
-    Object willLeaveServer(Object o, Method method, Object[] args) throws InvocationTargetException, IllegalAccessException {
-        Item item = (Item)o;
+    /**
+     * Returns whether a crafter contract will leave the server, or null for other items or contracts that are not
+     * decided here.
+     */
+    @Nullable
+    public static Boolean contractWillLeaveServer(Item item, boolean leaving) {
         if (item.getTemplateId() == contractTemplateId) {
-            boolean leaving = (boolean)args[0];
-
             if (item.getData() > 0) {
                 if (leaving) {
                     item.setTransferred(true);
@@ -890,15 +988,13 @@ public class CrafterMod implements WurmServerMod, PreInitable, Initable, Configu
             }
         }
 
-        return method.invoke(o, args);
+        return null;
     }
 
-    Object broadcastAction(Object o, Method method, Object[] args) throws InvocationTargetException, IllegalAccessException {
-        Creature performer = (Creature)args[1];
-        if (CrafterTemplate.isCrafter(performer) && !send_event_messages) {
-            return null;
-        }
-
-        return method.invoke(o, args);
+    /**
+     * Returns true if the action message should not be sent.
+     */
+    public static boolean hideCrafterAction(Creature performer) {
+        return !send_event_messages && CrafterTemplate.isCrafter(performer);
     }
 }
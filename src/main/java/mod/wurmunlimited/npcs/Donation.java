@@ -9,9 +9,13 @@ public class Donation extends Job {
         super(0, item, 100, false, 0, false);
     }
 
+    Donation(long itemId) {
+        super(0, itemId, 100, false, 0, false);
+    }
+
     @Override
     public String toString() {
-        return item.getWurmId() + "\n";
+        return itemId + "\n";
     }
 
     @Override
@@ -0,0 +1,59 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.items.Item;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Estimates when items in a forge will reach CrafterAIData.targetTemperature, from how quickly each has heated since
+// it was last checked.  Items heat more slowly the heavier they are, so the rate is measured rather than worked out.
+class ForgeHeat {
+    // Used until an item has been checked twice and a rate is known, or if it did not heat at all.
+    static final long RECHECK_MILLIS = 5000;
+    // Heating slows as an item nears the forge temperature, so never wait longer than this between checks.
+    static final long MAX_WAIT_MILLIS = 60000;
+    private final Map<Long, Reading> readings = new HashMap<>();
+
+    private static class Reading {
+        private final long time;
+        private final short temperature;
+        private final long readyAt;
+
+        private Reading(long time, short temperature, long readyAt) {
+            this.time = time;
+            this.temperature = temperature;
+            this.readyAt = readyAt;
+        }
+    }
+
+    /**
+     * Returns the time the item is expected to be hot enough, which is now if it already is.
+     */
+    long readyAt(Item item, long now) {
+        short temperature = item.getTemperature();
+        if (temperature >= CrafterAIData.targetTemperature) {
+            readings.remove(item.getWurmId());
+            return now;
+        }
+
+        Reading last = readings.get(item.getWurmId());
+        // Lumps are shared between jobs, so may be checked more than once at a time.
+        if (last != null && last.time == now)
+            return last.readyAt;
+
+        long readyAt;
+        if (last == null || temperature <= last.temperature || now < last.time) {
+            readyAt = now + RECHECK_MILLIS;
+        } else {
+            double perMilli = (temperature - last.temperature) / (double)(now - last.time);
+            long wait = (long)Math.ceil((CrafterAIData.targetTemperature - temperature) / perMilli);
+            readyAt = now + Math.min(wait, MAX_WAIT_MILLIS);
+        }
+        readings.put(item.getWurmId(), new Reading(now, temperature, readyAt));
+        return readyAt;
+    }
+
+    void clear() {
+        readings.clear();
+    }
+}
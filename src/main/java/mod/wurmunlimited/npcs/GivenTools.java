@@ -0,0 +1,126 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.items.Item;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+// Tools of one template given to a crafter, kept in the order given and indexed by quality so choosing one for a job is
+// a floor lookup instead of checking every tool.  Tools only change quality once the crafter has used or repaired
+// them, so the last tool chosen is re-indexed before the next lookup.
+class GivenTools {
+    private final List<Item> items = new ArrayList<>();
+    private final TreeSet<Entry> byQL = new TreeSet<>();
+    private final Map<Item, Entry> entries = new IdentityHashMap<>();
+    private Item lastChosen;
+
+    // Quality is copied when indexed so the ordering does not change whilst in the set.
+    private static class Entry implements Comparable<Entry> {
+        private final float ql;
+        private final long wurmId;
+        private final Item item;
+
+        private Entry(float ql, long wurmId, Item item) {
+            this.ql = ql;
+            this.wurmId = wurmId;
+            this.item = item;
+        }
+
+        @Override
+        public int compareTo(@Nonnull Entry other) {
+            int compare = Float.compare(ql, other.ql);
+            if (compare != 0)
+                return compare;
+            return Long.compare(wurmId, other.wurmId);
+        }
+    }
+
+    boolean add(Item item) {
+        if (entries.containsKey(item))
+            return false;
+        items.add(item);
+        index(item);
+        return true;
+    }
+
+    boolean remove(Item item) {
+        Entry entry = entries.remove(item);
+        if (entry == null)
+            return false;
+        byQL.remove(entry);
+        items.remove(item);
+        if (lastChosen == item)
+            lastChosen = null;
+        return true;
+    }
+
+    boolean contains(Item item) {
+        return entries.containsKey(item);
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    List<Item> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * Returns the highest quality tool above targetQL, but no more than 20 above it, or null if there is none.
+     */
+    @Nullable
+    Item choose(float targetQL) {
+        if (lastChosen != null) {
+            reindex(lastChosen);
+            lastChosen = null;
+        }
+
+        Entry highest = new Entry(targetQL + 20, Long.MAX_VALUE, null);
+        Item item = floor(highest, targetQL);
+        if (item != null)
+            return item;
+
+        // Tools indexed above the window may have been damaged down into it since, so are only checked when nothing in
+        // the window is found.
+        List<Item> changed = new ArrayList<>();
+        for (Entry entry : byQL.tailSet(highest, false)) {
+            if (entry.item.getCurrentQualityLevel() != entry.ql)
+                changed.add(entry.item);
+        }
+        if (changed.isEmpty())
+            return null;
+        changed.forEach(this::reindex);
+        return floor(highest, targetQL);
+    }
+
+    @Nullable
+    private Item floor(Entry highest, float targetQL) {
+        Entry entry = byQL.floor(highest);
+        while (entry != null && entry.ql > targetQL) {
+            // Damage from anything other than the crafter using it is only noticed here.
+            if (entry.item.getCurrentQualityLevel() == entry.ql) {
+                lastChosen = entry.item;
+                return entry.item;
+            }
+            reindex(entry.item);
+            entry = byQL.floor(highest);
+        }
+        return null;
+    }
+
+    private void index(Item item) {
+        Entry entry = new Entry(item.getCurrentQualityLevel(), item.getWurmId(), item);
+        entries.put(item, entry);
+        byQL.add(entry);
+    }
+
+    private void reindex(Item item) {
+        Entry entry = entries.get(item);
+        if (entry != null && entry.ql != item.getCurrentQualityLevel()) {
+            byQL.remove(entry);
+            index(item);
+        }
+    }
+}
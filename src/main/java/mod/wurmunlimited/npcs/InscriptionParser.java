@@ -0,0 +1,231 @@
+package mod.wurmunlimited.npcs;
+
+// Reads work book inscriptions in place, without the arrays and strings from String.split and the exceptions from
+// Long.parseLong etc.  Lines and fields follow the String.split rules, so trailing empty lines or fields are dropped.
+// Number parsing follows the matching parse methods, but sets invalid instead of throwing.  One parser can be reused
+// for any number of inscriptions.
+class InscriptionParser {
+    private static final int MAX_EXACT_MANTISSA = 1 << 24;
+    private static final float[] POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+    private String text = "";
+    private int position;
+    private int end;
+    private boolean hasNextLine;
+    private int lineStart;
+    private int lineEnd;
+    private int[] fieldStarts = new int[8];
+    private int[] fieldEnds = new int[8];
+    private int fieldCount;
+    boolean invalid;
+
+    void reset(String text) {
+        this.text = text;
+        position = 0;
+        end = text.length();
+        if (text.indexOf('\n') != -1) {
+            while (end > 0 && text.charAt(end - 1) == '\n')
+                --end;
+            hasNextLine = end > 0;
+        } else {
+            // "".split("\n") still has a single empty line.
+            hasNextLine = true;
+        }
+    }
+
+    boolean nextLine() {
+        if (!hasNextLine)
+            return false;
+
+        lineStart = position;
+        int newLine = text.indexOf('\n', position);
+        if (newLine == -1 || newLine >= end) {
+            lineEnd = end;
+            hasNextLine = false;
+        } else {
+            lineEnd = newLine;
+            position = newLine + 1;
+        }
+        splitFields();
+        invalid = false;
+        return true;
+    }
+
+    private void splitFields() {
+        fieldCount = 0;
+        int start = lineStart;
+        for (int i = lineStart; i < lineEnd; ++i) {
+            if (text.charAt(i) == ',') {
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+        addField(start, lineEnd);
+        // A line without a comma is always one field, even if empty.
+        if (fieldCount > 1) {
+            while (fieldCount > 0 && fieldStarts[fieldCount - 1] == fieldEnds[fieldCount - 1])
+                --fieldCount;
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            int[] starts = new int[fieldCount * 2];
+            int[] ends = new int[fieldCount * 2];
+            System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+            fieldStarts = starts;
+            fieldEnds = ends;
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        ++fieldCount;
+    }
+
+    // Only for messages and rewriting, allocates a new String.
+    String line() {
+        return text.substring(lineStart, lineEnd);
+    }
+
+    String field(int index) {
+        return text.substring(fieldStarts[index], fieldEnds[index]);
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    boolean lineStartsWith(String prefix) {
+        return text.startsWith(prefix, lineStart) && lineStart + prefix.length() <= lineEnd;
+    }
+
+    // Skips over the prefix of the first field, e.g. "restrict" before the first material.
+    void skipPrefix(int length) {
+        fieldStarts[0] = Math.min(fieldStarts[0] + length, fieldEnds[0]);
+    }
+
+    long longLine() {
+        return parseLong(lineStart, lineEnd, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    float floatLine() {
+        return parseFloat(lineStart, lineEnd);
+    }
+
+    int intLine() {
+        return (int)parseLong(lineStart, lineEnd, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    long longField(int index) {
+        if (index >= fieldCount) {
+            invalid = true;
+            return 0;
+        }
+        return parseLong(fieldStarts[index], fieldEnds[index], Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    int intField(int index) {
+        if (index >= fieldCount) {
+            invalid = true;
+            return 0;
+        }
+        return (int)parseLong(fieldStarts[index], fieldEnds[index], Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    byte byteField(int index) {
+        if (index >= fieldCount) {
+            invalid = true;
+            return 0;
+        }
+        return (byte)parseLong(fieldStarts[index], fieldEnds[index], Byte.MIN_VALUE, Byte.MAX_VALUE);
+    }
+
+    float floatField(int index) {
+        if (index >= fieldCount) {
+            invalid = true;
+            return 0;
+        }
+        return parseFloat(fieldStarts[index], fieldEnds[index]);
+    }
+
+    // Same rules as Long.parseLong, accumulating negatively so MIN_VALUE can be read.
+    private long parseLong(int start, int end, long min, long max) {
+        if (start >= end) {
+            invalid = true;
+            return 0;
+        }
+
+        boolean negative = false;
+        char first = text.charAt(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++start == end) {
+                invalid = true;
+                return 0;
+            }
+        }
+
+        long limit = negative ? min : -max;
+        long multiplyMin = limit / 10;
+        long result = 0;
+        for (int i = start; i < end; ++i) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < multiplyMin) {
+                invalid = true;
+                return 0;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                invalid = true;
+                return 0;
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    // Plain decimals such as those written by Float.toString are read directly.  With a mantissa under 2^24 and at
+    // most 10 decimal places both parts are exact floats and dividing in double then rounding gives the same result
+    // as Float.parseFloat.  Anything else falls back to Float.parseFloat.
+    private float parseFloat(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            ++i;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean point = false;
+        for (; i < end; ++i) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                ++digits;
+                if (point)
+                    ++decimals;
+                if (mantissa > MAX_EXACT_MANTISSA || decimals >= POWERS_OF_TEN.length)
+                    return parseFloatSlow(start, end);
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return parseFloatSlow(start, end);
+            }
+        }
+
+        if (digits == 0)
+            return parseFloatSlow(start, end);
+        float value = (float)((double)mantissa / POWERS_OF_TEN[decimals]);
+        return negative ? -value : value;
+    }
+
+    private float parseFloatSlow(int start, int end) {
+        try {
+            return Float.parseFloat(text.substring(start, end));
+        } catch (NumberFormatException e) {
+            invalid = true;
+            return 0;
+        }
+    }
+}
@@ -2,35 +2,64 @@ package mod.wurmunlimited.npcs;
 
 import com.google.common.base.Joiner;
 import com.wurmonline.server.FailedException;
+import com.wurmonline.server.Items;
+import com.wurmonline.server.NoSuchItemException;
 import com.wurmonline.server.Servers;
 import com.wurmonline.server.TimeConstants;
 import com.wurmonline.server.creatures.Creature;
 import com.wurmonline.server.economy.Economy;
 import com.wurmonline.server.items.*;
+import mod.wurmunlimited.npcs.db.CrafterDatabase;
+import mod.wurmunlimited.npcs.db.JobEvent;
 
 import java.util.logging.Logger;
 
 public class Job {
     private static final Logger logger = Logger.getLogger(Job.class.getName());
     final long customerId;
-    final Item item;
+    final long itemId;
+    // Null until resolveItem is called for jobs loaded by item id.
+    Item item;
     final float targetQL;
     final boolean mailWhenDone;
     boolean done;
     private final long priceCharged;
     private boolean hasBeenMailed = false;
+    // Only kept in memory, so a job part way through at restart records first_improve again.
+    boolean improveStarted = false;
+    // When predict_forge_heat is set, the time the item and its lump are next expected to be hot enough to improve.
+    long heatedAt = 0;
+    // Float bits of the last target QL measured by lineLength in the upper half, and the length of its text in the
+    // lower, as jobs taken together nearly always share the same target QL.
+    private static volatile long lastTargetQLLength = measureTargetQL(100);
 
     Job(long customerId, Item item, float targetQL, boolean mailWhenDone, long priceCharged, boolean done) {
-        this.customerId = customerId;
+        this(customerId, item.getWurmId(), targetQL, mailWhenDone, priceCharged, done);
         this.item = item;
+    }
+
+    Job(long customerId, long itemId, float targetQL, boolean mailWhenDone, long priceCharged, boolean done) {
+        this.customerId = customerId;
+        this.itemId = itemId;
         this.targetQL = targetQL;
         this.mailWhenDone = mailWhenDone;
         this.done = done;
         this.priceCharged = priceCharged;
     }
 
+    boolean resolveItem() {
+        if (item == null) {
+            try {
+                item = Items.getItem(itemId);
+            } catch (NoSuchItemException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public String toString() {
-        return Joiner.on(",").join(customerId, item.getWurmId(), targetQL, mailWhenDone ? "1" : "0", priceCharged, done ? "1" : "0") + "\n";
+        return Joiner.on(",").join(customerId, itemId, targetQL, mailWhenDone ? "1" : "0", priceCharged, done ? "1" : "0") + "\n";
     }
 
     // Is it good practice to a have a separate version like this?
@@ -38,6 +67,37 @@ public class Job {
         return Joiner.on(",").join(customerId, item.getWurmId(), targetQL, mailWhenDone ? "1" : "0", priceCharged, done ? "1" : "0") + "\n";
     }
 
+    // Length of the line toString builds for a job, or a donation, without building it.
+    static int lineLength(long customerId, long itemId, float targetQL, long priceCharged, boolean donation) {
+        if (donation)
+            return length(itemId) + 1;
+        // Five commas, the two single character flags and the newline.
+        return length(customerId) + length(itemId) + targetQLLength(targetQL) + length(priceCharged) + 8;
+    }
+
+    private static int length(long value) {
+        if (value == Long.MIN_VALUE)
+            return 20;
+        int length = value < 0 ? 2 : 1;
+        for (value = Math.abs(value); value >= 10; value /= 10) {
+            ++length;
+        }
+        return length;
+    }
+
+    private static int targetQLLength(float targetQL) {
+        long last = lastTargetQLLength;
+        if ((int)(last >>> 32) != Float.floatToIntBits(targetQL)) {
+            last = measureTargetQL(targetQL);
+            lastTargetQLLength = last;
+        }
+        return (int)last;
+    }
+
+    private static long measureTargetQL(float targetQL) {
+        return ((long)Float.floatToIntBits(targetQL) << 32) | Float.toString(targetQL).length();
+    }
+
     public boolean isDonation() {
         return false;
     }
@@ -46,10 +106,18 @@ public class Job {
         return creature.getWurmId() == customerId;
     }
 
+    public long getCustomerId() {
+        return customerId;
+    }
+
     public Item getItem() {
         return item;
     }
 
+    public long getItemId() {
+        return itemId;
+    }
+
     public boolean isDone() {
         return done;
     }
@@ -86,9 +154,10 @@ public class Job {
         mailToCustomer(item);
     }
 
-    public void refundCustomer() throws NoSuchTemplateException, FailedException {
+    public void refundCustomer(Creature crafter) throws NoSuchTemplateException, FailedException {
         // Done Jobs shouldn't be refunded as there is no loss to compensate.
         if (!done) {
+            CrafterDatabase.recordJobEvent(JobEvent.refunded, crafter, this);
             Item box = ItemFactory.createItem(ItemList.jarPottery, 1, "");
             Item[] coins = Economy.getEconomy().getCoinsFor(priceCharged);
             for (Item coin : coins) {
@@ -0,0 +1,131 @@
+package mod.wurmunlimited.npcs;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+// Jobs waiting to be worked on, kept in order as they are added and removed rather than sorted on every poll.
+class JobScheduler implements Iterable<Job> {
+    private final CrafterMod.JobOrderOption order;
+    private final Map<Job, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> jobs = new TreeSet<>();
+    private final TreeSet<Entry> donations = new TreeSet<>();
+    private long nextSequence = 0;
+
+    // Priority is copied when scheduled so the ordering does not change whilst in a set.
+    private static class Entry implements Comparable<Entry> {
+        private final Job job;
+        private final long sequence;
+        private float priority;
+
+        private Entry(Job job, long sequence) {
+            this.job = job;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(@Nonnull Entry other) {
+            int compare = Float.compare(priority, other.priority);
+            if (compare != 0)
+                return compare;
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    JobScheduler(CrafterMod.JobOrderOption order) {
+        this.order = order;
+    }
+
+    void add(Job job) {
+        if (job.isDone() || entries.containsKey(job))
+            return;
+        Entry entry = new Entry(job, nextSequence++);
+        entry.priority = priorityOf(job);
+        entries.put(job, entry);
+        setFor(job).add(entry);
+    }
+
+    void remove(Job job) {
+        Entry entry = entries.remove(job);
+        if (entry != null)
+            setFor(job).remove(entry);
+    }
+
+    // Call when the job item quality has changed.
+    void update(Job job) {
+        Entry entry = entries.get(job);
+        if (entry == null)
+            return;
+        if (job.isDone()) {
+            remove(job);
+            return;
+        }
+
+        float priority = priorityOf(job);
+        if (priority != entry.priority) {
+            TreeSet<Entry> set = setFor(job);
+            set.remove(entry);
+            entry.priority = priority;
+            set.add(entry);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private TreeSet<Entry> setFor(Job job) {
+        return job.isDonation() ? donations : jobs;
+    }
+
+    private float priorityOf(Job job) {
+        if (job.isDonation())
+            return job.item.getQualityLevel();
+
+        switch (order) {
+            case lowest_ql_gap:
+                return job.targetQL - job.item.getQualityLevel();
+            case highest_price:
+                return -job.getPriceCharged();
+            case fifo:
+            default:
+                return 0;
+        }
+    }
+
+    // Jobs before donations.  Jobs may be removed or updated whilst iterating.
+    @Nonnull
+    @Override
+    public Iterator<Job> iterator() {
+        return new Iterator<Job>() {
+            private TreeSet<Entry> set = jobs;
+            private Entry next = first();
+
+            private Entry first() {
+                Entry entry = jobs.isEmpty() ? null : jobs.first();
+                if (entry == null) {
+                    set = donations;
+                    entry = donations.isEmpty() ? null : donations.first();
+                }
+                return entry;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Job next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Entry current = next;
+                next = set.higher(current);
+                if (next == null && set == jobs) {
+                    set = donations;
+                    next = donations.isEmpty() ? null : donations.first();
+                }
+                return current.job;
+            }
+        };
+    }
+}
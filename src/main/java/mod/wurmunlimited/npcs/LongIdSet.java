@@ -0,0 +1,94 @@
+package mod.wurmunlimited.npcs;
+
+// Wurm ids in an open addressed table, so lookups do not box and hash a Long.  0 marks an empty slot, so is tracked
+// separately.
+class LongIdSet {
+    private long[] slots = new long[16];
+    private int size = 0;
+    private boolean hasZero = false;
+
+    boolean contains(long id) {
+        if (id == 0)
+            return hasZero;
+        int mask = slots.length - 1;
+        for (int i = index(id, mask); slots[i] != 0; i = (i + 1) & mask) {
+            if (slots[i] == id)
+                return true;
+        }
+        return false;
+    }
+
+    boolean add(long id) {
+        if (id == 0) {
+            if (hasZero)
+                return false;
+            hasZero = true;
+            ++size;
+            return true;
+        }
+        if (contains(id))
+            return false;
+        // Kept no more than half full, so searches stay short.
+        if ((size + 1) * 2 > slots.length)
+            resize(slots.length * 2);
+        insert(slots, id);
+        ++size;
+        return true;
+    }
+
+    boolean remove(long id) {
+        if (id == 0) {
+            if (!hasZero)
+                return false;
+            hasZero = false;
+            --size;
+            return true;
+        }
+        int mask = slots.length - 1;
+        int i = index(id, mask);
+        while (slots[i] != id) {
+            if (slots[i] == 0)
+                return false;
+            i = (i + 1) & mask;
+        }
+        slots[i] = 0;
+        --size;
+
+        // Move back any later ids in the same run that could no longer be found past the gap.
+        for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+            int home = index(slots[j], mask);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                slots[i] = slots[j];
+                slots[j] = 0;
+                i = j;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize(int length) {
+        long[] resized = new long[length];
+        for (long id : slots) {
+            if (id != 0)
+                insert(resized, id);
+        }
+        slots = resized;
+    }
+
+    private static void insert(long[] slots, long id) {
+        int mask = slots.length - 1;
+        int i = index(id, mask);
+        while (slots[i] != 0)
+            i = (i + 1) & mask;
+        slots[i] = id;
+    }
+
+    private static int index(long id, int mask) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+}
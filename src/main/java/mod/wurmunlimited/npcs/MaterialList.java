@@ -0,0 +1,72 @@
+package mod.wurmunlimited.npcs;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Materials in the order they were added, as they are saved, with a bit for each of the 256 byte values so contains
+// does not scan the list.
+class MaterialList extends AbstractList<Byte> implements RandomAccess {
+    private final List<Byte> materials = new ArrayList<>();
+    private final long[] bits = new long[4];
+
+    boolean contains(byte material) {
+        int index = material & 0xFF;
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Byte && contains((byte)o);
+    }
+
+    @Override
+    public Byte get(int index) {
+        return materials.get(index);
+    }
+
+    @Override
+    public int size() {
+        return materials.size();
+    }
+
+    @Override
+    public void add(int index, Byte material) {
+        materials.add(index, material);
+        int i = material & 0xFF;
+        bits[i >>> 6] |= 1L << i;
+        ++modCount;
+    }
+
+    @Override
+    public Byte set(int index, Byte material) {
+        Byte old = materials.set(index, material);
+        rebuild();
+        return old;
+    }
+
+    @Override
+    public Byte remove(int index) {
+        Byte old = materials.remove(index);
+        rebuild();
+        ++modCount;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        materials.clear();
+        rebuild();
+        ++modCount;
+    }
+
+    // Only on removal, as the same material could be in the list more than once.
+    private void rebuild() {
+        bits[0] = bits[1] = bits[2] = bits[3] = 0;
+        for (byte material : materials) {
+            int i = material & 0xFF;
+            bits[i >>> 6] |= 1L << i;
+        }
+    }
+}
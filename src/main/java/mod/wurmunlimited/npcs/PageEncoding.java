@@ -0,0 +1,168 @@
+package mod.wurmunlimited.npcs;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+// Compact work book page format, used instead of the decimal text lines when compact_work_book_pages is enabled.
+// A page starts with "~" and a version character, followed by one record per job.  Each value is a varint written
+// five bits to a base 64 character, with the sixth bit set on every character but the last.  Ids, target QL and
+// price are stored as the zigzag encoded difference from the previous job on the page, so repeat customers and items
+// created close together take one or two characters.
+//
+// Record - flags (1 donation, 2 mail when done, 4 done), then item id for donations, otherwise customer id, item id,
+// target QL float bits and price.
+class PageEncoding {
+    static final char MARKER = '~';
+    static final char VERSION = '1';
+    static final int HEADER_LENGTH = 2;
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    private static final int[] VALUES = new int[128];
+    private static final int DONATION = 1;
+    private static final int MAIL_WHEN_DONE = 2;
+    private static final int DONE = 4;
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length(); ++i) {
+            VALUES[ALPHABET.charAt(i)] = i;
+        }
+    }
+
+    interface JobReader {
+        void read(long customerId, long itemId, float targetQL, boolean mailWhenDone, long priceCharged, boolean done, boolean donation);
+    }
+
+    static class UnsupportedVersion extends Exception {
+        UnsupportedVersion(char version) {
+            super("Unsupported work book page version - " + version);
+        }
+    }
+
+    static boolean isCompact(String inscription) {
+        return !inscription.isEmpty() && inscription.charAt(0) == MARKER;
+    }
+
+    static void encode(StringBuilder sb, Job job, @Nullable Job previous) {
+        int flags = (job.isDonation() ? DONATION : 0) | (job.mailWhenDone ? MAIL_WHEN_DONE : 0) | (job.done ? DONE : 0);
+        writeVarint(sb, flags);
+        if (job.isDonation()) {
+            writeVarint(sb, zigzag(job.itemId - (previous == null ? 0 : previous.itemId)));
+        } else {
+            writeVarint(sb, zigzag(job.customerId - (previous == null ? 0 : previous.customerId)));
+            writeVarint(sb, zigzag(job.itemId - (previous == null ? 0 : previous.itemId)));
+            writeVarint(sb, zigzag((long)Float.floatToIntBits(job.targetQL) - (previous == null ? 0 : Float.floatToIntBits(previous.targetQL))));
+            writeVarint(sb, zigzag(job.getPriceCharged() - (previous == null ? 0 : previous.getPriceCharged())));
+        }
+    }
+
+    static int encodedLength(Job job, @Nullable Job previous) {
+        if (previous == null)
+            return encodedLength(job.isDonation(), job.customerId, job.itemId, job.targetQL, job.getPriceCharged(), 0, 0, 0, 0);
+        return encodedLength(job.isDonation(), job.customerId, job.itemId, job.targetQL, job.getPriceCharged(),
+                previous.customerId, previous.itemId, previous.targetQL, previous.getPriceCharged());
+    }
+
+    // As above, for a job that has not been created yet.  The previous values are all 0 for the first job on a page.
+    static int encodedLength(boolean donation, long customerId, long itemId, float targetQL, long priceCharged,
+                             long previousCustomerId, long previousItemId, float previousTargetQL, long previousPriceCharged) {
+        int length = 1;
+        if (donation) {
+            length += varintLength(zigzag(itemId - previousItemId));
+        } else {
+            length += varintLength(zigzag(customerId - previousCustomerId));
+            length += varintLength(zigzag(itemId - previousItemId));
+            length += varintLength(zigzag((long)Float.floatToIntBits(targetQL) - Float.floatToIntBits(previousTargetQL)));
+            length += varintLength(zigzag(priceCharged - previousPriceCharged));
+        }
+        return length;
+    }
+
+    // Returns false if the page was cut short or has an invalid character, jobs before that point are still read.
+    static boolean decode(String inscription, JobReader reader) throws UnsupportedVersion {
+        if (inscription.length() < HEADER_LENGTH || inscription.charAt(1) != VERSION)
+            throw new UnsupportedVersion(inscription.length() < HEADER_LENGTH ? ' ' : inscription.charAt(1));
+
+        Decoder decoder = new Decoder(inscription);
+        long customerId = 0;
+        long itemId = 0;
+        int targetQLBits = 0;
+        long price = 0;
+        while (decoder.position < inscription.length()) {
+            int flags = (int)decoder.next();
+            if ((flags & DONATION) != 0) {
+                itemId += unzigzag(decoder.next());
+                if (decoder.invalid)
+                    return false;
+                reader.read(0, itemId, 100, false, 0, false, true);
+                // Following deltas are from the donation's values.
+                customerId = 0;
+                targetQLBits = Float.floatToIntBits(100);
+                price = 0;
+            } else {
+                customerId += unzigzag(decoder.next());
+                itemId += unzigzag(decoder.next());
+                targetQLBits += (int)unzigzag(decoder.next());
+                price += unzigzag(decoder.next());
+                if (decoder.invalid)
+                    return false;
+                reader.read(customerId, itemId, Float.intBitsToFloat(targetQLBits), (flags & MAIL_WHEN_DONE) != 0, price, (flags & DONE) != 0, false);
+            }
+        }
+        return true;
+    }
+
+    private static class Decoder {
+        private final String text;
+        private int position;
+        private boolean invalid;
+
+        private Decoder(String text) {
+            this.text = text;
+            position = HEADER_LENGTH;
+        }
+
+        private long next() {
+            long value = 0;
+            int shift = 0;
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                int bits = c < VALUES.length ? VALUES[c] : -1;
+                if (bits == -1 || shift > 60) {
+                    invalid = true;
+                    return 0;
+                }
+                value |= (long)(bits & 31) << shift;
+                if ((bits & 32) == 0)
+                    return value;
+                shift += 5;
+            }
+            invalid = true;
+            return 0;
+        }
+    }
+
+    private static void writeVarint(StringBuilder sb, long value) {
+        while ((value & ~31L) != 0) {
+            sb.append(ALPHABET.charAt((int)(value & 31) | 32));
+            value >>>= 5;
+        }
+        sb.append(ALPHABET.charAt((int)value));
+    }
+
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~31L) != 0) {
+            ++length;
+            value >>>= 5;
+        }
+        return length;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
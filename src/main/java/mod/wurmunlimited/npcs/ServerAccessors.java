@@ -0,0 +1,147 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.behaviours.MethodsItems;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.creatures.CreatureTemplate;
+import com.wurmonline.server.creatures.TradeHandler;
+import com.wurmonline.server.items.CrafterTrade;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.questions.CreatureCreationQuestion;
+import com.wurmonline.server.questions.Question;
+import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+// Private server members used by the crafter, resolved once into method handles instead of looked up on every call.
+// Resolved by init at server start, or on first use if that comes sooner, as CrafterTradeHandler cannot be loaded until
+// preInit has removed final from TradeHandler.  Any handle that cannot be resolved is left null and the member is
+// accessed through reflection instead, as it was before.
+class ServerAccessors {
+    private static final Logger logger = Logger.getLogger(ServerAccessors.class.getName());
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static volatile boolean resolved = false;
+    private static MethodHandle tradeHandler;
+    private static MethodHandle newCrafterTradeHandler;
+    private static MethodHandle setFire;
+    private static MethodHandle answer;
+    private static MethodHandle templates;
+
+    private interface Resolve {
+        MethodHandle resolve() throws ReflectiveOperationException;
+    }
+
+    /**
+     * Resolves every accessor.  Called from onServerStarted.
+     */
+    static synchronized void init() {
+        if (resolved)
+            return;
+
+        tradeHandler = resolve("Creature.tradeHandler", () -> getter(Creature.class, "tradeHandler", TradeHandler.class));
+        newCrafterTradeHandler = resolve("CrafterTradeHandler constructor", () -> {
+            Class<?> crafterTradeHandler = Class.forName("com.wurmonline.server.creatures.CrafterTradeHandler");
+            return lookup.unreflectConstructor(crafterTradeHandler.getConstructor(Creature.class, CrafterTrade.class))
+                           .asType(MethodType.methodType(TradeHandler.class, Creature.class, CrafterTrade.class));
+        });
+        setFire = resolve("MethodsItems.setFire", () -> {
+            Method method = MethodsItems.class.getDeclaredMethod("setFire", Creature.class, Item.class);
+            method.setAccessible(true);
+            return lookup.unreflect(method).asType(MethodType.methodType(void.class, Creature.class, Item.class));
+        });
+        answer = resolve("Question.answer", () -> getter(Question.class, "answer", Properties.class));
+        templates = resolve("CreatureCreationQuestion.cretemplates", () -> getter(CreatureCreationQuestion.class, "cretemplates", List.class));
+        resolved = true;
+    }
+
+    @Nullable
+    private static MethodHandle resolve(String name, Resolve resolve) {
+        try {
+            return resolve.resolve();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warning("Could not resolve " + name + ", using reflection instead.  Reason follows:");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static MethodHandle getter(Class<?> owner, String name, Class<?> type) throws NoSuchFieldException, IllegalAccessException {
+        Field field = owner.getDeclaredField(name);
+        field.setAccessible(true);
+        return lookup.unreflectGetter(field).asType(MethodType.methodType(type, owner));
+    }
+
+    @Nullable
+    static TradeHandler getTradeHandler(Creature creature) {
+        if (!resolved)
+            init();
+        try {
+            if (tradeHandler != null)
+                return (TradeHandler)tradeHandler.invokeExact(creature);
+            return ReflectionUtil.getPrivateField(creature, Creature.class.getDeclaredField("tradeHandler"));
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static TradeHandler newCrafterTradeHandler(Creature creature, CrafterTrade trade) {
+        if (!resolved)
+            init();
+        try {
+            if (newCrafterTradeHandler != null)
+                return (TradeHandler)newCrafterTradeHandler.invokeExact(creature, trade);
+            Class<?> crafterTradeHandler = Class.forName("com.wurmonline.server.creatures.CrafterTradeHandler");
+            return (TradeHandler)crafterTradeHandler.getConstructor(Creature.class, CrafterTrade.class).newInstance(creature, trade);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void setFire(Creature performer, Item forge) {
+        if (!resolved)
+            init();
+        try {
+            if (setFire != null) {
+                setFire.invokeExact(performer, forge);
+            } else {
+                Method method = MethodsItems.class.getDeclaredMethod("setFire", Creature.class, Item.class);
+                method.setAccessible(true);
+                method.invoke(null, performer, forge);
+            }
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static Properties getAnswers(Question question) {
+        if (!resolved)
+            init();
+        try {
+            if (answer != null)
+                return (Properties)answer.invokeExact(question);
+            return ReflectionUtil.getPrivateField(question, Question.class.getDeclaredField("answer"));
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<CreatureTemplate> getCreatureTemplates(CreatureCreationQuestion question) {
+        if (!resolved)
+            init();
+        try {
+            if (templates != null)
+                return (List<CreatureTemplate>)templates.invokeExact(question);
+            return ReflectionUtil.getPrivateField(question, CreatureCreationQuestion.class.getDeclaredField("cretemplates"));
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
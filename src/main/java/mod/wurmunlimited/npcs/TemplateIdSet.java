@@ -0,0 +1,86 @@
+package mod.wurmunlimited.npcs;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Item template ids as bits, in ascending order.  Template ids are small and never negative, so lookups are a single
+// bit test rather than boxing and hashing an Integer.
+class TemplateIdSet extends AbstractSet<Integer> {
+    private final BitSet ids = new BitSet();
+    private int size = 0;
+
+    boolean contains(int templateId) {
+        return templateId >= 0 && ids.get(templateId);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && contains((int)o);
+    }
+
+    @Override
+    public boolean add(Integer templateId) {
+        if (templateId < 0)
+            throw new IllegalArgumentException("Template id cannot be negative - " + templateId);
+        if (ids.get(templateId))
+            return false;
+        ids.set(templateId);
+        ++size;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o))
+            return false;
+        ids.clear((int)o);
+        --size;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        ids.clear();
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+            private int next = ids.nextSetBit(0);
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            @Override
+            public Integer next() {
+                if (next == -1)
+                    throw new NoSuchElementException();
+                last = next;
+                next = ids.nextSetBit(next + 1);
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == -1)
+                    throw new IllegalStateException();
+                ids.clear(last);
+                --size;
+                last = -1;
+            }
+        };
+    }
+}
@@ -13,27 +13,58 @@ import com.wurmonline.server.items.*;
 import com.wurmonline.server.skills.SkillList;
 import com.wurmonline.server.villages.Village;
 import com.wurmonline.shared.exceptions.WurmServerException;
+import mod.wurmunlimited.npcs.db.CrafterDatabase;
+import mod.wurmunlimited.npcs.db.JobEvent;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class WorkBook implements Iterable<Job> {
     private final Logger logger = Logger.getLogger(WorkBook.class.getName());
+    private static final ThreadLocal<InscriptionParser> parsers = ThreadLocal.withInitial(InscriptionParser::new);
     private static final int MAX_INSCRIPTION_LENGTH = 500;
+    private static final int MAX_PAGES = 9;
+    // Starting estimate of the space a new job takes, before any have been added to the work book.
+    private static final int ESTIMATED_JOB_LENGTH = 48;
+    private static final int ESTIMATED_COMPACT_JOB_LENGTH = 24;
     static final String workBookDescription = "Work Book";
     @SuppressWarnings("WeakerAccess")
     public final Item workBookItem;
+    private Item contentsPage;
     Item forge;
     private CrafterType crafterType;
     private float skillCap;
-    private final List<Job> jobs = new ArrayList<>();
-    private final Map<Item, Job> jobItems = new HashMap<>();
-    private final List<Byte> restrictedMaterials = new ArrayList<>();
+    // Insertion ordered, with constant time removal.
+    private final Set<Job> jobs = new LinkedHashSet<>();
+    private final Map<Long, Job> jobItems = new HashMap<>();
+    // Loaded jobs waiting for their items to be looked up, in load order.
+    private final List<Job> unresolvedJobs = new ArrayList<>();
+    private final Map<Long, List<Job>> customerJobs = new HashMap<>();
+    private final JobScheduler scheduler = new JobScheduler(CrafterMod.getJobOrder());
+    private int todoCount = 0;
+    private int doneCount = 0;
+    private int donationCount = 0;
+    private final List<Page> pages = new ArrayList<>();
+    private final Map<Job, Page> jobPages = new HashMap<>();
+    // Longest job added to a page, used as the space each new job is expected to need.
+    private int longestJob = 0;
+    private boolean useDatabase = CrafterMod.storeJobsInDatabase();
+    // Work books with changes waiting for the next flush, only used when writing behind.
+    private static final Set<WorkBook> dirtyWorkBooks = new LinkedHashSet<>();
+    private final Set<Page> dirtyPages = new LinkedHashSet<>();
+    private boolean contentsDirty = false;
+    // Number of inscriptions written, for checking that only the changed pages are saved.
+    int pageWrites = 0;
+    private final MaterialList restrictedMaterials = new MaterialList();
+    // In contents page order, with the set for lookups.
     private final List<Integer> blockedItems = new ArrayList<>();
+    private final TemplateIdSet blockedItemIds = new TemplateIdSet();
 
     public static class NoWorkBookOnWorker extends WurmServerException {
         NoWorkBookOnWorker(String message) {
@@ -53,6 +84,70 @@ public class WorkBook implements Iterable<Job> {
         }
     }
 
+    // Follows the page lengths as jobs are added, as appendJob or saveWorkBook would lay them out, without writing them.
+    private static class PagePacker {
+        private int pageNumber;
+        private int length;
+        private boolean hasPrevious;
+        private long previousCustomerId;
+        private long previousItemId;
+        private float previousTargetQL;
+        private long previousPriceCharged;
+
+        // Starts after the last job on the given page, or before the first page if pageNumber is 0.
+        private PagePacker(int pageNumber, int length, @Nullable Job previous) {
+            this.pageNumber = pageNumber;
+            this.length = length;
+            if (previous != null)
+                setPrevious(previous.customerId, previous.itemId, previous.targetQL, previous.getPriceCharged(), previous.isDonation());
+        }
+
+        // Returns false if the job would need a page after the last.
+        private boolean add(long customerId, long itemId, float targetQL, long priceCharged, boolean donation) {
+            int jobLength = jobLength(customerId, itemId, targetQL, priceCharged, donation);
+            if (pageNumber == 0 || length + jobLength > MAX_INSCRIPTION_LENGTH) {
+                if (++pageNumber > MAX_PAGES)
+                    return false;
+                length = 0;
+                hasPrevious = false;
+                jobLength = jobLength(customerId, itemId, targetQL, priceCharged, donation);
+            }
+            length += jobLength;
+            setPrevious(customerId, itemId, targetQL, priceCharged, donation);
+            return true;
+        }
+
+        private int jobLength(long customerId, long itemId, float targetQL, long priceCharged, boolean donation) {
+            if (!CrafterMod.compactWorkBookPages())
+                return Job.lineLength(customerId, itemId, targetQL, priceCharged, donation);
+            if (!hasPrevious)
+                return PageEncoding.encodedLength(donation, customerId, itemId, targetQL, priceCharged, 0, 0, 0, 0) + PageEncoding.HEADER_LENGTH;
+            return PageEncoding.encodedLength(donation, customerId, itemId, targetQL, priceCharged,
+                    previousCustomerId, previousItemId, previousTargetQL, previousPriceCharged);
+        }
+
+        private void setPrevious(long customerId, long itemId, float targetQL, long priceCharged, boolean donation) {
+            hasPrevious = true;
+            // The same values a Donation has.
+            previousCustomerId = donation ? 0 : customerId;
+            previousItemId = itemId;
+            previousTargetQL = donation ? 100 : targetQL;
+            previousPriceCharged = donation ? 0 : priceCharged;
+        }
+    }
+
+    private static class Page {
+        private final Item item;
+        private final int number;
+        private final List<Job> jobs = new ArrayList<>();
+        private int length = 0;
+
+        private Page(Item item, int number) {
+            this.item = item;
+            this.number = number;
+        }
+    }
+
     WorkBook(Item workBookItem) throws InvalidWorkBookInscription {
         if (!isWorkBook(workBookItem))
             throw new InvalidWorkBookInscription("Work book item does not fit the criteria.");
@@ -62,137 +157,235 @@ public class WorkBook implements Iterable<Job> {
         if (!pages.hasNext())
             throw new InvalidWorkBookInscription("No contents page found.");
 
-        Item contentsPage = pages.next();
+        contentsPage = pages.next();
         InscriptionData contentsInscription = contentsPage.getInscription();
         if (contentsInscription == null)
             throw new InvalidWorkBookInscription("Contents page (" + contentsPage.getWurmId() + ") has no inscription.");
 
-        String[] header = contentsInscription.getInscription().split("\n");
-        if (header.length < 3) {
-            throw new InvalidWorkBookInscription("Invalid work book header - " + Arrays.toString(header));
+        InscriptionParser parser = parsers.get();
+        String contents = contentsInscription.getInscription();
+        parser.reset(contents);
+        String skillCapLine = null;
+        String forgeLine = null;
+        long forgeId = -10;
+        if (parser.nextLine()) {
+            skillCap = parser.floatLine();
+            if (parser.invalid)
+                skillCapLine = parser.line();
+        }
+        if (parser.nextLine()) {
+            forgeId = parser.longLine();
+            if (parser.invalid)
+                forgeLine = parser.line();
+        }
+        if (!parser.nextLine()) {
+            throw new InvalidWorkBookInscription("Invalid work book header - " + Arrays.toString(contents.split("\n")));
         }
 
-        boolean rewriteHeader = false;
-        try {
-            skillCap = Float.parseFloat(header[0]);
+        boolean resetSkillCap = false;
+        boolean removeForge = false;
+        if (skillCapLine == null) {
             skillCap = Math.min(skillCap, CrafterMod.getSkillCap());
-        } catch (NumberFormatException e) {
-            logger.warning("Invalid skill cap value in workbook (" + header[0] + ") - Setting server cap.");
+        } else {
+            logger.warning("Invalid skill cap value in workbook (" + skillCapLine + ") - Setting server cap.");
             skillCap = CrafterMod.getSkillCap();
-            header[0] = Float.toString(skillCap);
-            rewriteHeader = true;
+            resetSkillCap = true;
         }
 
-        try {
-            long forgeId = Long.parseLong(header[1]);
+        if (forgeLine == null) {
             if (forgeId != -10) {
                 try {
                     forge = Items.getItem(forgeId);
                 } catch (NoSuchItemException e) {
                     logger.warning("Could not find forge - " + forgeId + ".  Was it destroyed?  Removing.");
                     e.printStackTrace();
-                    header[1] = "-10";
-                    rewriteHeader = true;
+                    removeForge = true;
                 }
             }
-        } catch (NumberFormatException e) {
-            logger.warning("Invalid forge id in workbook (" + header[1] + ") - Removing.");
-            header[1] = "-10";
-            rewriteHeader = true;
+        } else {
+            logger.warning("Invalid forge id in workbook (" + forgeLine + ") - Removing.");
+            removeForge = true;
         }
 
-        if (rewriteHeader) {
+        if (resetSkillCap || removeForge) {
+            String[] header = contents.split("\n");
+            if (resetSkillCap)
+                header[0] = Float.toString(skillCap);
+            if (removeForge)
+                header[1] = "-10";
             contentsInscription.setInscription(Joiner.on("\n").join(header));
         }
 
-        int nextHeader = 2;
-
-        if (header[nextHeader].startsWith("restrict")) {
-            for (String material : header[nextHeader].substring(8).split(",")) {
-                try {
-                    restrictedMaterials.add(Byte.parseByte(material));
-                } catch (NumberFormatException e) {
-                    logger.warning("Invalid restricted material in workbook (" + material + ") - Ignoring.");
+        boolean hasLine = true;
+
+        if (parser.lineStartsWith("restrict")) {
+            parser.skipPrefix(8);
+            for (int i = 0; i < parser.fieldCount(); ++i) {
+                byte material = parser.byteField(i);
+                if (parser.invalid) {
+                    logger.warning("Invalid restricted material in workbook (" + parser.field(i) + ") - Ignoring.");
+                    parser.invalid = false;
+                } else {
+                    restrictedMaterials.add(material);
                 }
             }
-            ++nextHeader;
+            hasLine = parser.nextLine();
         }
 
-        if (header[nextHeader].startsWith("blocked")) {
-            for (String templateId : header[nextHeader].substring(7).split(",")) {
-                try {
-                    blockedItems.add(Integer.parseInt(templateId));
-                } catch (NumberFormatException e) {
-                    logger.warning("Invalid blocked template id in workbook (" + templateId + ") - Ignoring.");
+        if (hasLine && parser.lineStartsWith("blocked")) {
+            parser.skipPrefix(7);
+            for (int i = 0; i < parser.fieldCount(); ++i) {
+                int templateId = parser.intField(i);
+                if (parser.invalid || templateId < 0) {
+                    logger.warning("Invalid blocked template id in workbook (" + parser.field(i) + ") - Ignoring.");
+                    parser.invalid = false;
+                } else {
+                    blockedItems.add(templateId);
+                    blockedItemIds.add(templateId);
                 }
             }
-            ++nextHeader;
+            hasLine = parser.nextLine();
         }
 
         AtomicBoolean reSave = new AtomicBoolean(false);
 
+        List<Integer> skills = new ArrayList<>();
+        while (hasLine) {
+            int skill = parser.intLine();
+            if (parser.invalid)
+                throw new InvalidWorkBookInscription("Invalid work book crafter type - " + parser.line());
+            skills.add(skill);
+            hasLine = parser.nextLine();
+        }
+
+        if (skills.contains(SkillList.SMITHING_WEAPON_BLADES)) {
+            skills.remove(new Integer(SkillList.SMITHING_WEAPON_BLADES));
+            reSave.set(true);
+        }
+        if (skills.contains(SkillList.SMITHING_WEAPON_HEADS)) {
+            skills.remove(new Integer(SkillList.SMITHING_WEAPON_HEADS));
+            reSave.set(true);
+        }
+
+        try {
+            crafterType = new CrafterType(skills.toArray(new Integer[0]));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidWorkBookInscription("Invalid work book crafter type - " + skills);
+        }
+
+        // Checked whatever job_storage is set to, so jobs are moved back to pages if it is changed back to inscription.
+        // The migrated work book ids are read once for all work books, so this only queries for ones that were migrated.
+        List<Job> storedJobs = new ArrayList<>();
+        boolean inDatabase = false;
         try {
-            List<Integer> skills = new ArrayList<>();
+            inDatabase = CrafterDatabase.loadJobsFor(workBookItem.getWurmId(), (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) ->
+                    storedJobs.add(createLoadedJob(customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation)));
+        } catch (SQLException e) {
+            if (useDatabase) {
+                logger.warning("Could not load jobs from the database, using work book pages instead.");
+                useDatabase = false;
+            } else {
+                logger.warning("Could not check the database for jobs from this work book.");
+            }
+            e.printStackTrace();
+        }
 
-            while (nextHeader < header.length) {
-                skills.add(Integer.parseInt(header[nextHeader]));
-                ++nextHeader;
+        int position = 0;
+        while (pages.hasNext()) {
+            Item pageItem = pages.next();
+            ++position;
+            InscriptionData inscription = pageItem.getInscription();
+            if (inscription == null) {
+                logger.warning(pageItem.getName() + " in workbook has no inscription.  Removing.");
+                Items.destroyItem(pageItem.getWurmId());
+                continue;
             }
 
-            if (skills.contains(SkillList.SMITHING_WEAPON_BLADES)) {
-                skills.remove(new Integer(SkillList.SMITHING_WEAPON_BLADES));
+            int number = getPageNumber(pageItem);
+            if (number == -1) {
+                logger.warning("Invalid page description in workbook (" + pageItem.getDescription() + ") - Renumbering.");
+                number = position;
                 reSave.set(true);
             }
-            if (skills.contains(SkillList.SMITHING_WEAPON_HEADS)) {
-                skills.remove(new Integer(SkillList.SMITHING_WEAPON_HEADS));
-                reSave.set(true);
+            Page page = new Page(pageItem, number);
+            this.pages.add(page);
+
+            String text = inscription.getInscription();
+            if (PageEncoding.isCompact(text)) {
+                try {
+                    if (!PageEncoding.decode(text, (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) ->
+                            loadJob(page, registerJob(createLoadedJob(customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation))))) {
+                        logger.warning("Invalid data on " + pageItem.getDescription() + " in workbook - Keeping jobs read before the error.");
+                        reSave.set(true);
+                    }
+                } catch (PageEncoding.UnsupportedVersion e) {
+                    // Re-saving would lose the jobs on this page.
+                    throw new InvalidWorkBookInscription(e.getMessage());
+                }
+                continue;
             }
 
-            crafterType = new CrafterType(skills.toArray(new Integer[0]));
-        } catch (IllegalArgumentException e) {
-            throw new InvalidWorkBookInscription("Invalid work book crafter type - " + header[nextHeader]);
-        }
+            parser.reset(text);
+            while (parser.nextLine()) {
+                // Items are looked up when the jobs are first needed, see resolveItems.
+                if (parser.fieldCount() == 1) {
+                    long itemId = parser.longField(0);
+                    if (!parser.invalid) {
+                        loadJob(page, registerJob(createLoadedJob(0, itemId, 100, false, 0, false, true)));
+                        continue;
+                    }
+                } else {
+                    long customerId = parser.longField(0);
+                    long itemId = parser.longField(1);
+                    float targetQL = parser.floatField(2);
+                    boolean mailWhenDone = parser.intField(3) == 1;
+                    long priceCharged = parser.longField(4);
+                    boolean done = parser.intField(5) == 1;
+                    if (!parser.invalid) {
+                        loadJob(page, registerJob(createLoadedJob(customerId, itemId, targetQL, mailWhenDone, priceCharged, done, false)));
+                        continue;
+                    }
+                }
 
-        pages.forEachRemaining(page -> {
-            InscriptionData inscription = page.getInscription();
-            if (inscription == null) {
-                logger.warning(page.getName() + " in workbook has no inscription.  Removing.");
-                Items.destroyItem(page.getWurmId());
-            } else {
-                String[] lines = inscription.getInscription().split("\n");
-                for (String line : lines) {
-                    String[] values = line.split(",");
-
-                    try {
-                        if (values.length == 1) {
-                            addDonation(Items.getItem(Long.parseLong(values[0])), false);
-                        } else {
-                            addJob(Long.parseLong(values[0]), Items.getItem(Long.parseLong(values[1])), Float.parseFloat(values[2]),
-                                Integer.parseInt(values[3]) == 1, Long.parseLong(values[4]), Integer.parseInt(values[5]) == 1, false);
-                        }
-                    } catch (ArrayIndexOutOfBoundsException | NoSuchItemException | NumberFormatException e) {
-                        logger.warning("Invalid line in workbook - " + line);
-                        // Try to recover owner and item.
+                logger.warning("Invalid line in workbook - " + parser.line());
+                // Try to recover owner and item.
+                if (parser.fieldCount() >= 2) {
+                    parser.invalid = false;
+                    long customerId = parser.longField(0);
+                    long itemId = parser.longField(1);
+                    if (!parser.invalid) {
                         try {
-                            if (values.length >= 2 && values[0] != null && values[1] != null) {
-                                long customerId = Long.parseLong(values[0]);
-                                long itemId = Long.parseLong(values[1]);
-
-                                // Check ids are correct type as an extra precaution.
-                                if (WurmId.getType(customerId) == 0 && WurmId.getType(itemId) == 2) {
-                                    new Job(customerId, Items.getItem(itemId), 1, false, 0, false).mailToCustomer();
-                                }
-                                logger.warning("Item recovery attempted successfully.  Maybe?");
+                            // Check ids are correct type as an extra precaution.
+                            if (WurmId.getType(customerId) == 0 && WurmId.getType(itemId) == 2) {
+                                new Job(customerId, Items.getItem(itemId), 1, false, 0, false).mailToCustomer();
                             }
-                        } catch (NumberFormatException | NoSuchItemException ignored) {}
-                        // Re-save workbook after loading the rest of the entries.
-                        reSave.set(true);
-                        e.printStackTrace();
-                    } catch (WorkBookFull ignored) {}
-                    // Exception should never happen as saveWorkbook is never called this way.
+                            logger.warning("Item recovery attempted successfully.  Maybe?");
+                        } catch (NoSuchItemException ignored) {}
+                    }
                 }
+                // Re-save workbook after loading the rest of the entries.
+                reSave.set(true);
             }
-        });
+        }
+
+        // Jobs are only written to pages whilst in the database if the database could not be used, so pages are newer.
+        boolean pagesHaveJobs = !jobPages.isEmpty();
+        if (inDatabase && !pagesHaveJobs)
+            storedJobs.forEach(this::registerJob);
+
+        if (useDatabase) {
+            try {
+                if (!inDatabase || pagesHaveJobs)
+                    CrafterDatabase.migrateJobsFor(workBookItem.getWurmId(), jobs);
+                discardPages();
+            } catch (SQLException e) {
+                logger.warning("Could not move jobs to the database, using work book pages instead.");
+                e.printStackTrace();
+                useDatabase = false;
+            }
+        } else if (inDatabase) {
+            moveJobsToPages();
+        }
 
         if (reSave.get()) {
             try {
@@ -207,8 +400,47 @@ public class WorkBook implements Iterable<Job> {
         workBookItem = ItemFactory.createItem(ItemList.book, 10.0f, "");
         workBookItem.setDescription(workBookDescription);
         workBookItem.setHasNoDecay(true);
-        Item page = getNewPage("Contents");
-        page.setInscription(Joiner.on("\n").join(this.skillCap, -10, (Object[])crafterType.getAllTypes()), "");
+        contentsPage = getNewPage("Contents");
+        contentsPage.setInscription(Joiner.on("\n").join(this.skillCap, -10, (Object[])crafterType.getAllTypes()), "");
+
+        if (useDatabase) {
+            try {
+                CrafterDatabase.migrateJobsFor(workBookItem.getWurmId(), Collections.emptyList());
+            } catch (SQLException e) {
+                logger.warning("Could not register new work book in the database, using work book pages instead.");
+                e.printStackTrace();
+                useDatabase = false;
+            }
+        }
+    }
+
+    // Jobs are only removed from the database once they have been written to pages.
+    private void moveJobsToPages() {
+        try {
+            saveWorkBook();
+            flush();
+        } catch (WorkBookFull e) {
+            logger.warning("Jobs in the database do not fit in the work book pages, keeping them in the database.");
+            useDatabase = true;
+            discardPages();
+            return;
+        }
+
+        try {
+            CrafterDatabase.removeJobsFor(workBookItem.getWurmId());
+        } catch (SQLException e) {
+            logger.warning("Could not remove jobs from the database after writing them to work book pages.");
+            e.printStackTrace();
+        }
+    }
+
+    private void discardPages() {
+        for (Page page : pages) {
+            Items.destroyItem(page.item.getWurmId());
+        }
+        pages.clear();
+        jobPages.clear();
+        dirtyPages.clear();
     }
 
     private Item getNewPage(String description) throws NoSuchTemplateException, FailedException {
@@ -219,8 +451,21 @@ public class WorkBook implements Iterable<Job> {
         return page;
     }
 
+    private static int getPageNumber(Item page) {
+        String description = page.getDescription();
+        if (description.startsWith("Page ")) {
+            try {
+                int number = Integer.parseInt(description.substring(5));
+                if (number > 0 && number <= MAX_PAGES)
+                    return number;
+            } catch (NumberFormatException ignored) {}
+        }
+        return -1;
+    }
+
     @Nonnull
     public Iterator<Job> iterator() {
+        resolveItems();
         return new Iterator<Job>() {
             private final Iterator<Job> jobIterator = jobs.stream().filter(job -> !job.isDonation()).iterator();
             private final Iterator<Job> donationsIterator = jobs.stream().filter(Job::isDonation).sorted((i, j) -> Float.compare(i.item.getQualityLevel(), j.item.getQualityLevel())).iterator();
@@ -240,6 +485,16 @@ public class WorkBook implements Iterable<Job> {
         };
     }
 
+    // Jobs that have not been done yet, in the order they should be worked on.
+    Iterable<Job> scheduledJobs() {
+        resolveItems();
+        return scheduler;
+    }
+
+    void reschedule(Job job) {
+        scheduler.update(job);
+    }
+
     public float getSkillCap() {
         return skillCap;
     }
@@ -264,20 +519,47 @@ public class WorkBook implements Iterable<Job> {
             throw new NoWorkBookOnWorker("Not a Worker or no work book found.");
     }
 
+    // Looks up the items for all loaded jobs at once, removing any jobs whose item no longer exists.  Called before jobs
+    // are first needed rather than when loading, so crafters that are never traded with or polled do not pay for it.
+    void resolveItems() {
+        if (unresolvedJobs.isEmpty())
+            return;
+
+        List<Job> toResolve = new ArrayList<>(unresolvedJobs);
+        unresolvedJobs.clear();
+        for (Job job : toResolve) {
+            if (!jobs.contains(job))
+                continue;
+            if (job.resolveItem()) {
+                scheduler.add(job);
+            } else {
+                logger.warning("Could not find item (" + job.itemId + ") for job in work book.  Removing.");
+                removeJob(job);
+            }
+        }
+    }
+
     public int todo() {
-        return (int)jobs.stream().filter(job -> !job.done && !job.isDonation()).count();
+        resolveItems();
+        return todoCount;
     }
 
     public int donationsTodo() {
-        return (int)jobs.stream().filter(Job::isDonation).count();
+        resolveItems();
+        return donationCount;
     }
 
     public int done() {
-        return (int)jobs.stream().filter(job -> job.done).count();
+        resolveItems();
+        return doneCount;
     }
 
     public List<Job> getJobsFor(Creature creature) {
-        return jobs.stream().filter(job -> job.customerId == creature.getWurmId()).collect(Collectors.toList());
+        resolveItems();
+        List<Job> forCustomer = customerJobs.get(creature.getWurmId());
+        if (forCustomer == null)
+            return new ArrayList<>();
+        return new ArrayList<>(forCustomer);
     }
 
     public boolean isForgeAssigned() {
@@ -285,109 +567,373 @@ public class WorkBook implements Iterable<Job> {
     }
 
     public boolean isJobItem(Item item) {
-        return jobItems.containsKey(item);
+        return jobItems.containsKey(item.getWurmId());
     }
 
-    public void addJob(long customerId, Item item, float targetQL, boolean mailWhenDone, long priceCharged) throws WorkBookFull {
-        addJob(customerId, item, targetQL, mailWhenDone, priceCharged, false, true);
+    public Job addJob(long customerId, Item item, float targetQL, boolean mailWhenDone, long priceCharged) throws WorkBookFull {
+        targetQL = Math.min(targetQL, CrafterMod.getSkillCap());
+        Job job = registerJob(new Job(customerId, item, targetQL, mailWhenDone, priceCharged, false));
+        appendJob(job);
+        return job;
     }
 
-    private void addJob(long customerId, Item item, float targetQL, boolean mailWhenDone, long priceCharged, boolean done, boolean save) throws WorkBookFull {
-        targetQL = Math.min(targetQL, CrafterMod.getSkillCap());
-        jobs.add(new Job(customerId, item, targetQL, mailWhenDone, priceCharged, done));
-        jobItems.put(item, jobs.get(jobs.size() - 1));
-        if (save)
-            saveWorkBook();
+    @Nullable
+    public Job getJob(Item item) {
+        return jobItems.get(item.getWurmId());
     }
 
     public void removeJob(Item item) {
-        Job job = jobItems.remove(item);
+        Job job = jobItems.get(item.getWurmId());
+        if (job != null)
+            removeJob(job);
+    }
+
+    private void removeJob(Job job) {
+        jobItems.remove(job.itemId, job);
         jobs.remove(job);
-        try {
-            saveWorkBook();
-        } catch (WorkBookFull ignored) {}
-        // Exception should never happen as removeJob should only be reducing the page count.
+        List<Job> forCustomer = customerJobs.get(job.customerId);
+        if (forCustomer != null) {
+            forCustomer.remove(job);
+            if (forCustomer.isEmpty())
+                customerJobs.remove(job.customerId);
+        }
+        countJob(job, -1);
+        scheduler.remove(job);
+
+        if (useDatabase) {
+            try {
+                CrafterDatabase.removeJob(workBookItem.getWurmId(), job.itemId);
+            } catch (SQLException e) {
+                logger.warning("Could not remove job for " + job.itemId + " from the database.");
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        Page page = jobPages.remove(job);
+        if (page == null) {
+            try {
+                saveWorkBook();
+            } catch (WorkBookFull ignored) {}
+            // Exception should never happen as removeJob should only be reducing the page count.
+            return;
+        }
+
+        page.jobs.remove(job);
+        // With compact pages the following job is now encoded against a different job.
+        page.length = pageLength(page);
+        if (page.jobs.isEmpty()) {
+            pages.remove(page);
+            dirtyPages.remove(page);
+            Items.destroyItem(page.item.getWurmId());
+        } else {
+            savePage(page);
+        }
     }
 
     public void addDonation(Item item) throws WorkBookFull {
-        addDonation(item, true);
+        appendJob(registerJob(new Donation(item)));
+    }
+
+    private Job registerJob(Job job) {
+        jobs.add(job);
+        jobItems.put(job.itemId, job);
+        customerJobs.computeIfAbsent(job.customerId, k -> new ArrayList<>()).add(job);
+        countJob(job, 1);
+        // Queue behind any loaded jobs so the scheduler still sees them in order.
+        if (job.item == null || !unresolvedJobs.isEmpty())
+            unresolvedJobs.add(job);
+        else
+            scheduler.add(job);
+        return job;
+    }
+
+    private void countJob(Job job, int change) {
+        if (job.isDonation())
+            donationCount += change;
+        else if (job.done)
+            doneCount += change;
+        else
+            todoCount += change;
+    }
+
+    private Job createLoadedJob(long customerId, long itemId, float targetQL, boolean mailWhenDone, long priceCharged, boolean done, boolean donation) {
+        if (donation)
+            return new Donation(itemId);
+        return new Job(customerId, itemId, Math.min(targetQL, CrafterMod.getSkillCap()), mailWhenDone, priceCharged, done);
+    }
+
+    private void loadJob(Page page, Job job) {
+        int length = jobLength(job, lastJobOn(page));
+        page.length += length;
+        longestJob = Math.max(longestJob, length);
+        page.jobs.add(job);
+        jobPages.put(job, page);
+    }
+
+    @Nullable
+    private static Job lastJobOn(@Nullable Page page) {
+        if (page == null || page.jobs.isEmpty())
+            return null;
+        return page.jobs.get(page.jobs.size() - 1);
+    }
+
+    // Length the job adds to a page in the format pages are written in, previous is null for the first job on a page.
+    private static int jobLength(Job job, @Nullable Job previous) {
+        if (CrafterMod.compactWorkBookPages())
+            return PageEncoding.encodedLength(job, previous) + (previous == null ? PageEncoding.HEADER_LENGTH : 0);
+        return Job.lineLength(job.customerId, job.itemId, job.targetQL, job.getPriceCharged(), job.isDonation());
     }
 
-    private void addDonation(Item item, boolean save) throws WorkBookFull {
-        jobs.add(new Donation(item));
-        jobItems.put(item, jobs.get(jobs.size() - 1));
-        if (save)
+    private static int pageLength(Page page) {
+        int length = 0;
+        Job previous = null;
+        for (Job job : page.jobs) {
+            length += jobLength(job, previous);
+            previous = job;
+        }
+        return length;
+    }
+
+    private void appendJob(Job job) throws WorkBookFull {
+        if (useDatabase) {
+            // Can only fail here if not queued by async_database_writes, queued writes log their own failures.
+            try {
+                CrafterDatabase.addJob(workBookItem.getWurmId(), job);
+                return;
+            } catch (SQLException e) {
+                logger.warning("Could not add job for " + job.itemId + " to the database, writing jobs to work book pages instead.");
+                e.printStackTrace();
+            }
+
+            useDatabase = false;
+            try {
+                saveWorkBook();
+            } catch (WorkBookFull e) {
+                useDatabase = true;
+                discardPages();
+                throw e;
+            }
+            try {
+                CrafterDatabase.removeJobsFor(workBookItem.getWurmId());
+            } catch (SQLException ignored) {
+                // Pages are read in place of the database jobs when loading.
+            }
+            return;
+        }
+
+        Page last = pages.isEmpty() ? null : pages.get(pages.size() - 1);
+        if (last != null && last.length + jobLength(job, lastJobOn(last)) <= MAX_INSCRIPTION_LENGTH) {
+            loadJob(last, job);
+            savePage(last);
+            return;
+        }
+
+        int nextNumber = last == null ? 1 : last.number + 1;
+        if (nextNumber > MAX_PAGES) {
+            // Earlier pages may have space left by removed jobs, so pack everything again.
             saveWorkBook();
+            return;
+        }
+
+        try {
+            Page page = new Page(getNewPage("Page " + nextNumber), nextNumber);
+            pages.add(page);
+            loadJob(page, job);
+            savePage(page);
+        } catch (NoSuchTemplateException | FailedException e) {
+            logger.severe("A server error occurred when creating a new item.  Aborting.");
+            e.printStackTrace();
+        }
     }
 
     public void updateSkillsSettings(CrafterType newCrafterType, float newSkillCap) throws WorkBookFull {
         crafterType = newCrafterType;
         skillCap = newSkillCap;
-        saveWorkBook();
+        saveContents();
     }
 
     private void saveWorkBook() throws WorkBookFull {
+        if (useDatabase) {
+            saveContents();
+            return;
+        }
+
         try {
-            Iterator<Item> pages = workBookItem.getItems().stream().sorted(Comparator.comparing(Item::getDescription)).iterator();
-            Item contentsPage;
-            if (!pages.hasNext()) {
+            Iterator<Item> pageItems = workBookItem.getItems().stream().sorted(Comparator.comparing(Item::getDescription)).iterator();
+            if (!pageItems.hasNext()) {
                 logger.warning("Contents page missing when saving workbook. Adding a new one.");
                 contentsPage = getNewPage("Contents");
             } else {
-                contentsPage = pages.next();
+                contentsPage = pageItems.next();
             }
+            saveContents();
 
-            StringBuilder contentsSb = new StringBuilder();
-            contentsSb.append(skillCap).append("\n");
-            contentsSb.append((forge == null ? "-10" : forge.getWurmId())).append("\n");
-            if (restrictedMaterials.size() > 0)
-                contentsSb.append("restrict").append(Joiner.on(",").join(restrictedMaterials)).append("\n");
-            if (blockedItems.size() > 0)
-                contentsSb.append("blocked").append(Joiner.on(",").join(blockedItems)).append("\n");
-            contentsSb.append(Joiner.on("\n").join(crafterType.getAllTypes()));
-            String contents = contentsSb.toString();
-            if (contents.length() > 500) {
-                throw new WorkBookFull("Contents page does not have enough space.");
-            }
-            contentsPage.setInscription(contents, "");
-
-            int pageNumber = 1;
-            int length = 0;
-            StringBuilder sb = new StringBuilder();
+            pages.clear();
+            jobPages.clear();
+            dirtyPages.clear();
+            Page page = null;
             for (Job job : jobs) {
-                String jobString = job.toString();
-                if (jobString.length() + length > MAX_INSCRIPTION_LENGTH) {
-                    if (pageNumber == 9) {
+                if (page == null || page.length + jobLength(job, lastJobOn(page)) > MAX_INSCRIPTION_LENGTH) {
+                    int pageNumber = page == null ? 1 : page.number + 1;
+                    if (pageNumber > MAX_PAGES) {
                         throw new WorkBookFull("Work book is already full.");
                     }
 
-                    addPage(pageNumber, sb.toString(), pages);
-                    ++pageNumber;
-                    length = 0;
-                    sb = new StringBuilder();
+                    Item pageItem;
+                    if (pageItems.hasNext()) {
+                        pageItem = pageItems.next();
+                        pageItem.setDescription("Page " + pageNumber);
+                    } else {
+                        pageItem = getNewPage("Page " + pageNumber);
+                    }
+                    page = new Page(pageItem, pageNumber);
+                    pages.add(page);
                 }
-                length += jobString.length();
-                sb.append(jobString);
+                loadJob(page, job);
             }
-            if (sb.length() > 0)
-                addPage(pageNumber, sb.toString(), pages);
 
-            pages.forEachRemaining(page -> Items.destroyItem(page.getWurmId()));
+            for (Page p : pages) {
+                savePage(p);
+            }
+
+            pageItems.forEachRemaining(p -> Items.destroyItem(p.getWurmId()));
         } catch (NoSuchTemplateException | FailedException e) {
             logger.severe("A server error occurred when creating a new item.  Aborting.");
             e.printStackTrace();
         }
     }
 
-    private void addPage(int num, String inscription, Iterator<Item> pages) throws NoSuchTemplateException, FailedException {
-        Item page;
-        if (pages.hasNext()) {
-            page = pages.next();
-            page.setDescription("Page " + num);
+    private void saveContents() throws WorkBookFull {
+        String contents = buildContents();
+        if (contents.length() > MAX_INSCRIPTION_LENGTH) {
+            throw new WorkBookFull("Contents page does not have enough space.");
         }
-        else
-            page = getNewPage("Page " + num);
-        page.setInscription(inscription, "");
+
+        if (CrafterMod.writeBehindWorkBooks()) {
+            contentsDirty = true;
+            dirtyWorkBooks.add(this);
+        } else {
+            writeContents(contents);
+        }
+    }
+
+    private String buildContents() {
+        StringBuilder contentsSb = new StringBuilder();
+        contentsSb.append(skillCap).append("\n");
+        contentsSb.append((forge == null ? "-10" : forge.getWurmId())).append("\n");
+        if (restrictedMaterials.size() > 0)
+            contentsSb.append("restrict").append(Joiner.on(",").join(restrictedMaterials)).append("\n");
+        if (blockedItems.size() > 0)
+            contentsSb.append("blocked").append(Joiner.on(",").join(blockedItems)).append("\n");
+        contentsSb.append(Joiner.on("\n").join(crafterType.getAllTypes()));
+        return contentsSb.toString();
+    }
+
+    private void writeContents(String contents) {
+        contentsPage.setInscription(contents, "");
+        ++pageWrites;
+    }
+
+    private void savePage(Page page) {
+        if (CrafterMod.writeBehindWorkBooks()) {
+            dirtyPages.add(page);
+            dirtyWorkBooks.add(this);
+        } else {
+            writePage(page);
+        }
+    }
+
+    private void writePage(Page page) {
+        StringBuilder sb = new StringBuilder();
+        if (CrafterMod.compactWorkBookPages()) {
+            sb.append(PageEncoding.MARKER).append(PageEncoding.VERSION);
+            Job previous = null;
+            for (Job job : page.jobs) {
+                PageEncoding.encode(sb, job, previous);
+                previous = job;
+            }
+        } else {
+            for (Job job : page.jobs) {
+                sb.append(job.toString());
+            }
+        }
+        page.length = sb.length();
+        page.item.setInscription(sb.toString(), "");
+        ++pageWrites;
+    }
+
+    private void saveJob(Job job) {
+        if (useDatabase) {
+            try {
+                CrafterDatabase.setJobDone(workBookItem.getWurmId(), job);
+            } catch (SQLException e) {
+                logger.warning("Could not update job for " + job.itemId + " in the database.");
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        Page page = jobPages.get(job);
+        if (page == null) {
+            try {
+                saveWorkBook();
+            } catch (WorkBookFull ignored) {}
+            // Exception should never happen as the job is already in the work book.
+        } else {
+            savePage(page);
+        }
+    }
+
+    void flush() {
+        // The work book may have been destroyed or banked since the changes were made.
+        if (!isWorkBookInWorld()) {
+            contentsDirty = false;
+            dirtyPages.clear();
+            return;
+        }
+        if (contentsDirty) {
+            writeContents(buildContents());
+            contentsDirty = false;
+        }
+        for (Page page : dirtyPages) {
+            writePage(page);
+        }
+        dirtyPages.clear();
+    }
+
+    private boolean isWorkBookInWorld() {
+        if (workBookItem.isBanked())
+            return false;
+        try {
+            return Items.getItem(workBookItem.getWurmId()) == workBookItem;
+        } catch (NoSuchItemException e) {
+            return false;
+        }
+    }
+
+    // Called when the crafter is destroyed, so changes are not written to the work book afterwards.
+    void discardChanges() {
+        dirtyWorkBooks.remove(this);
+        contentsDirty = false;
+        dirtyPages.clear();
+    }
+
+    // Called once the jobs have been returned to their customers.
+    void removeStoredJobs() {
+        try {
+            CrafterDatabase.removeJobsFor(workBookItem.getWurmId());
+        } catch (SQLException e) {
+            logger.warning("Could not remove jobs for destroyed work book from the database.");
+            e.printStackTrace();
+        }
+    }
+
+    static void flushAll() {
+        for (WorkBook workBook : dirtyWorkBooks) {
+            workBook.flush();
+        }
+        dirtyWorkBooks.clear();
     }
 
     void setForge(@Nullable Item forge) {
@@ -396,7 +942,7 @@ public class WorkBook implements Iterable<Job> {
         if (this.forge != forge) {
             this.forge = forge;
             try {
-                saveWorkBook();
+                saveContents();
             } catch (WorkBookFull ignored) {}
             // Exception should never happen as forge is saved to the contents page.
         }
@@ -406,7 +952,10 @@ public class WorkBook implements Iterable<Job> {
         if (job.isDonation())
             return;
 
+        countJob(job, -1);
         job.done = true;
+        countJob(job, 1);
+        scheduler.remove(job);
 
         Shop shop = crafter.getShop();
 
@@ -452,33 +1001,63 @@ public class WorkBook implements Iterable<Job> {
         }
 
         shop.setLastPolled(System.currentTimeMillis());
+        CrafterDatabase.recordJobEvent(JobEvent.done, crafter, job);
 
         if (job.mailWhenDone()) {
             job.mailToCustomer();
-            removeJob(job.item);
+            CrafterDatabase.recordJobEvent(JobEvent.mailed, crafter, job);
+            removeJob(job);
             return;
         }
-        try {
-            saveWorkBook();
-        } catch (WorkBookFull ignored) {}
-        // Exception should never happen as done is a single character for true or false.
+        // Done is a single character for true or false, so the job still fits on the same page.
+        saveJob(job);
+    }
+
+    // Rough number of jobs that can still be added, using the page lengths kept in memory rather than the inscriptions.
+    // Space left by removed jobs on earlier pages is not counted until the work book is packed again.  Jobs can be
+    // longer than any seen so far, so this is only for telling customers, use hasEnoughSpaceFor to accept jobs.
+    public int remainingCapacity() {
+        if (useDatabase)
+            return Integer.MAX_VALUE;
+        int jobLength = Math.max(longestJob, CrafterMod.compactWorkBookPages() ? ESTIMATED_COMPACT_JOB_LENGTH : ESTIMATED_JOB_LENGTH);
+        int capacity = (MAX_PAGES - pages.size()) * (MAX_INSCRIPTION_LENGTH / jobLength);
+        if (!pages.isEmpty())
+            capacity += (MAX_INSCRIPTION_LENGTH - pages.get(pages.size() - 1).length) / jobLength;
+        return capacity;
     }
 
-    public boolean hasEnoughSpaceFor(List<String> lines) {
-        int currentPageNumber = workBookItem.getItemCount() - 1;
-        int charactersRequired = lines.stream().mapToInt(String::length).sum();
-        int remainingPages = 9 - currentPageNumber;
-        if (remainingPages > 0 && charactersRequired < 500 * remainingPages) {
+    /**
+     * Returns true if addJob could add a job for every item, in order, without the work book becoming full.  Coins are
+     * payment rather than jobs, so are skipped.  Job lengths are worked out from their values in the format pages are
+     * written in, rather than building each line.
+     */
+    public boolean hasEnoughSpaceFor(long customerId, Item[] items, ToDoubleFunction<Item> targetQL, ToLongFunction<Item> priceCharged) {
+        if (useDatabase)
             return true;
+
+        // Page lengths are tracked in memory as inscriptions may not have been written yet.
+        Page last = pages.isEmpty() ? null : pages.get(pages.size() - 1);
+        if (fits(new PagePacker(last == null ? 0 : last.number, last == null ? 0 : last.length, lastJobOn(last)), customerId, items, targetQL, priceCharged))
+            return true;
+
+        // Past the last page addJob packs every job again, which may use space left by removed jobs on earlier pages.
+        PagePacker packer = new PagePacker(0, 0, null);
+        for (Job job : jobs) {
+            if (!packer.add(job.customerId, job.itemId, job.targetQL, job.getPriceCharged(), job.isDonation()))
+                return false;
         }
-        Optional<Item> maybeItem = workBookItem.getItems().stream().max(Comparator.comparing(Item::getDescription));
-        if (maybeItem.isPresent()) {
-            InscriptionData inscription = maybeItem.get().getInscription();
-            if (inscription != null) {
-                return charactersRequired <= 500 - inscription.getInscription().length();
-            }
+        return fits(packer, customerId, items, targetQL, priceCharged);
+    }
+
+    private static boolean fits(PagePacker packer, long customerId, Item[] items, ToDoubleFunction<Item> targetQL, ToLongFunction<Item> priceCharged) {
+        for (Item item : items) {
+            if (item.isCoin())
+                continue;
+            float ql = Math.min((float)targetQL.applyAsDouble(item), CrafterMod.getSkillCap());
+            if (!packer.add(customerId, item.getWurmId(), ql, priceCharged.applyAsLong(item), false))
+                return false;
         }
-        return false;
+        return true;
     }
 
     // TODO - Rename, something different as they could be seen as restricted from or restricted to.
@@ -489,7 +1068,7 @@ public class WorkBook implements Iterable<Job> {
     public void updateRestrictedMaterials(List<Byte> materials) throws WorkBookFull {
         restrictedMaterials.clear();
         restrictedMaterials.addAll(materials);
-        saveWorkBook();
+        saveContents();
     }
 
     public boolean isRestrictedMaterial(byte b) {
@@ -506,14 +1085,15 @@ public class WorkBook implements Iterable<Job> {
 
     public void updateBlockedItems(Collection<Integer> blocked) throws WorkBookFull {
         blockedItems.clear();
-        blockedItems.addAll(blocked);
-        saveWorkBook();
+        blockedItemIds.clear();
+        for (int templateId : blocked) {
+            blockedItems.add(templateId);
+            blockedItemIds.add(templateId);
+        }
+        saveContents();
     }
 
     public boolean isBlockedItem(int templateId) {
-        if (CrafterMod.blockedItems.contains(templateId)) {
-            return true;
-        }
-        return blockedItems.size() != 0 && blockedItems.contains(templateId);
+        return CrafterMod.isGloballyBlockedItem(templateId) || blockedItemIds.contains(templateId);
     }
 }
@@ -6,24 +6,394 @@ import com.wurmonline.server.items.Item;
 import com.wurmonline.server.skills.Skill;
 import com.wurmonline.shared.exceptions.WurmServerException;
 import mod.wurmunlimited.npcs.CrafterMod;
+import mod.wurmunlimited.npcs.CrafterType;
+import mod.wurmunlimited.npcs.Job;
 
 import java.sql.*;
 import java.time.Clock;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class CrafterDatabase {
     private static final Logger logger = Logger.getLogger(CrafterDatabase.class.getName());
     private static String dbString = "";
     private static boolean created = false;
+    // Kept open between calls, as opening SQLite costs far more than most of the statements run here.
+    private static Connection connection = null;
+    // Statements reused for the life of the connection, callers must not close them.
+    private static final Map<String, PreparedStatement> statements = new HashMap<>();
+    // Reads have their own connection and lock, so the server thread does not wait whilst the writer thread holds the
+    // other for a batch.  With WAL they see the last commit, and add any writes that are still queued.
+    private static Connection readConnection = null;
+    private static final Map<String, PreparedStatement> readStatements = new HashMap<>();
+    private static final Object readLock = new Object();
+    // SQLite allows up to 999 parameters in a statement.
+    private static final int MAX_IDS_PER_QUERY = 500;
+    private static final WriteQueue writes = new WriteQueue(10000, CrafterDatabase::writeBatch);
+    // Every given tool by crafter id.  The whole table is read on the first lookup, as crafters are loaded one after
+    // another at server start, then kept up to date as tools are given and removed.  Has its own lock, so giving a tool
+    // does not wait for the writer thread to finish a batch.
+    private static Map<Long, Set<Long>> givenTools = null;
+    private static final Object givenToolsLock = new Object();
+    // Ids of work books with jobs in the database, read in one query on first use so work books that were never
+    // migrated are loaded without a query each.
+    private static Set<Long> migratedWorkBooks = null;
+    private static final Object migratedWorkBooksLock = new Object();
+    // Job events are held until there are enough for a batch, or the oldest has waited long enough.
+    private static final int JOB_EVENTS_PER_BATCH = 100;
+    private static final long MAX_JOB_EVENT_WAIT = 60000L;
+    private static final long HOUR_MILLIS = 3600000L;
+    private static final List<JobEventRow> jobEvents = new ArrayList<>();
+    // Incremented by whichever thread fills a batch, either the server or the writer thread.
+    private static final AtomicLong jobEventBatches = new AtomicLong();
+    // Job store changes each have their own key, rather than the row's, so they are written in the order they were made.
+    private static final AtomicLong jobChanges = new AtomicLong();
     public static Clock clock = Clock.systemUTC();
     private static final Map<Creature, String> tags = new HashMap<>();
     private static final Map<Creature, Currency> currencies = new HashMap<>();
+    // Skills saved since the last server poll by contract id, so crafters dismissed together are written as one batch.
+    private static final Map<Long, SkillsWrite> waitingSkills = new LinkedHashMap<>();
 
     public interface Execute {
         void run(Connection db) throws SQLException;
     }
 
+    public interface LoadJob {
+        void load(long customerId, long itemId, float targetQL, boolean mailWhenDone, long priceCharged, boolean done, boolean donation);
+    }
+
+    // The row a queued write changes, newer writes to the same row replace older ones.
+    private static class RowKey {
+        private final String table;
+        private final long first;
+        private final long second;
+
+        private RowKey(String table, long first, long second) {
+            this.table = table;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof RowKey))
+                return false;
+            RowKey other = (RowKey)o;
+            return first == other.first && second == other.second && table.equals(other.table);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(table, first, second);
+        }
+    }
+
+    private static class GivenToolWrite implements WriteQueue.Write {
+        private final long crafterId;
+        private final long itemId;
+        private final boolean given;
+
+        private GivenToolWrite(long crafterId, long itemId, boolean given) {
+            this.crafterId = crafterId;
+            this.itemId = itemId;
+            this.given = given;
+        }
+
+        @SuppressWarnings("SqlResolve")
+        @Override
+        public void run(Connection db) throws SQLException {
+            PreparedStatement ps = prepare(db, given ? "INSERT INTO donated_tools VALUES(?, ?);" : "DELETE FROM donated_tools WHERE crafter_id=? AND item_id=?;");
+            ps.setLong(1, crafterId);
+            ps.setLong(2, itemId);
+            ps.executeUpdate();
+        }
+    }
+
+    // Skill levels are copied when queued, as the crafter may carry on learning before they are written.
+    private static class SkillsWrite implements WriteQueue.Write {
+        private final long contractId;
+        private final Map<Integer, Double> skills = new HashMap<>();
+
+        private SkillsWrite(Creature crafter, Item writ) {
+            contractId = writ.getWurmId();
+            for (Map.Entry<Integer, Skill> entry : crafter.getSkills().getSkillTree().entrySet()) {
+                skills.put(entry.getKey(), entry.getValue().getKnowledge());
+            }
+        }
+
+        @SuppressWarnings("SqlResolve")
+        @Override
+        public void run(Connection db) throws SQLException {
+            PreparedStatement ps = prepare(db, "INSERT INTO saved_skills VALUES (?, ?, ?);");
+            for (Map.Entry<Integer, Double> entry : skills.entrySet()) {
+                ps.setLong(1, contractId);
+                ps.setInt(2, entry.getKey());
+                ps.setDouble(3, entry.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static class JobEventRow {
+        private final long time;
+        private final long crafterId;
+        private final long customerId;
+        private final long itemId;
+        private final int skillId;
+        private final JobEvent event;
+        private final long price;
+
+        private JobEventRow(long time, long crafterId, Job job, JobEvent event) {
+            this.time = time;
+            this.crafterId = crafterId;
+            customerId = job.getCustomerId();
+            itemId = job.getItemId();
+            skillId = job.getItem() != null ? CrafterType.getNearestSkill(job.getItem()) : -10;
+            this.event = event;
+            price = job.getPriceCharged();
+        }
+    }
+
+    // Appends the events, then adds each completed job to the rollup for its hour, crafter and skill.  Only the rows for
+    // the completed jobs in the batch are touched, rather than rebuilding each hour from every event.
+    private static class JobEventsWrite implements WriteQueue.Write {
+        private final List<JobEventRow> rows;
+
+        private JobEventsWrite(List<JobEventRow> rows) {
+            this.rows = rows;
+        }
+
+        @SuppressWarnings("SqlResolve")
+        @Override
+        public void run(Connection db) throws SQLException {
+            PreparedStatement ps = prepare(db, "INSERT INTO job_events VALUES (?, ?, ?, ?, ?, ?, ?);");
+            for (JobEventRow row : rows) {
+                ps.setLong(1, row.time);
+                ps.setLong(2, row.crafterId);
+                ps.setLong(3, row.customerId);
+                ps.setLong(4, row.itemId);
+                ps.setInt(5, row.skillId);
+                ps.setInt(6, row.event.id);
+                ps.setLong(7, row.price);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+
+            // Time to done is from the latest time the item was accepted, as the same item may be brought back again.
+            PreparedStatement accepted = prepare(db, "SELECT MAX(time) FROM job_events WHERE item_id=? AND event=? AND time<=?;");
+            PreparedStatement addRollup = prepare(db, "INSERT OR IGNORE INTO job_rollups VALUES (?, ?, ?, 0, 0, 0, 0);");
+            PreparedStatement rollUp = prepare(db, "UPDATE job_rollups SET jobs_completed=jobs_completed + 1, coins_earned=coins_earned + ?, " +
+                    "timed_jobs=timed_jobs + ?, total_time_to_done=total_time_to_done + ? WHERE hour=? AND crafter_id=? AND skill_id=?;");
+            for (JobEventRow row : rows) {
+                if (row.event != JobEvent.done)
+                    continue;
+
+                accepted.setLong(1, row.itemId);
+                accepted.setInt(2, JobEvent.accepted.id);
+                accepted.setLong(3, row.time);
+                long timeToDone = -1;
+                try (ResultSet rs = accepted.executeQuery()) {
+                    if (rs.next()) {
+                        long acceptedTime = rs.getLong(1);
+                        if (!rs.wasNull())
+                            timeToDone = row.time - acceptedTime;
+                    }
+                }
+
+                long hour = row.time - row.time % HOUR_MILLIS;
+                addRollup.setLong(1, hour);
+                addRollup.setLong(2, row.crafterId);
+                addRollup.setInt(3, row.skillId);
+                addRollup.executeUpdate();
+
+                rollUp.setLong(1, row.price);
+                rollUp.setInt(2, timeToDone == -1 ? 0 : 1);
+                rollUp.setLong(3, Math.max(timeToDone, 0));
+                rollUp.setLong(4, hour);
+                rollUp.setLong(5, row.crafterId);
+                rollUp.setInt(6, row.skillId);
+                rollUp.executeUpdate();
+            }
+        }
+    }
+
+    // A job as it was when the change was made, as it may change again before being written.
+    private static class JobRow {
+        private final long customerId;
+        private final long itemId;
+        private final float targetQL;
+        private final boolean mailWhenDone;
+        private final long priceCharged;
+        private final boolean done;
+        private final boolean donation;
+
+        private JobRow(long customerId, long itemId, float targetQL, boolean mailWhenDone, long priceCharged, boolean done, boolean donation) {
+            this.customerId = customerId;
+            this.itemId = itemId;
+            this.targetQL = targetQL;
+            this.mailWhenDone = mailWhenDone;
+            this.priceCharged = priceCharged;
+            this.done = done;
+            this.donation = donation;
+        }
+
+        private JobRow(Job job) {
+            this(job.getCustomerId(), job.getItemId(), job.getTargetQL(), job.mailWhenDone(), job.getPriceCharged(), job.isDone(), job.isDonation());
+        }
+
+        private JobRow withDone(boolean done) {
+            return new JobRow(customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation);
+        }
+    }
+
+    // A change to the jobs of one work book.  apply makes the same change to jobs read by item id, in the order they
+    // were added, so jobs can be loaded before it is written.
+    private abstract static class JobStoreWrite implements WriteQueue.Write {
+        final long workBookId;
+
+        private JobStoreWrite(long workBookId) {
+            this.workBookId = workBookId;
+        }
+
+        abstract void apply(Map<Long, JobRow> jobs);
+    }
+
+    private enum JobChange {
+        added, done, removed
+    }
+
+    private static class JobWrite extends JobStoreWrite {
+        private final JobChange change;
+        private final JobRow job;
+
+        private JobWrite(long workBookId, JobChange change, JobRow job) {
+            super(workBookId);
+            this.change = change;
+            this.job = job;
+        }
+
+        @SuppressWarnings("SqlResolve")
+        @Override
+        public void run(Connection db) throws SQLException {
+            PreparedStatement ps;
+            switch (change) {
+                case added:
+                    ps = prepare(db, "INSERT INTO jobs VALUES (?, ?, ?, ?, ?, ?, ?, ?);");
+                    setJob(ps, workBookId, job);
+                    break;
+                case done:
+                    ps = prepare(db, "UPDATE jobs SET done=? WHERE work_book_id=? AND item_id=?;");
+                    ps.setBoolean(1, job.done);
+                    ps.setLong(2, workBookId);
+                    ps.setLong(3, job.itemId);
+                    break;
+                default:
+                    ps = prepare(db, "DELETE FROM jobs WHERE work_book_id=? AND item_id=?;");
+                    ps.setLong(1, workBookId);
+                    ps.setLong(2, job.itemId);
+                    break;
+            }
+            ps.executeUpdate();
+        }
+
+        @Override
+        void apply(Map<Long, JobRow> jobs) {
+            switch (change) {
+                case added:
+                    // Replaces any job for the same item, which is then last as it has a new rowid.
+                    jobs.remove(job.itemId);
+                    jobs.put(job.itemId, job);
+                    break;
+                case done:
+                    JobRow row = jobs.get(job.itemId);
+                    if (row != null)
+                        jobs.put(job.itemId, row.withDone(job.done));
+                    break;
+                default:
+                    jobs.remove(job.itemId);
+                    break;
+            }
+        }
+    }
+
+    // Replaces every job for a work book when migrated, or removes them and the record it was migrated if jobs is null.
+    private static class JobsWrite extends JobStoreWrite {
+        private final List<JobRow> jobs;
+
+        private JobsWrite(long workBookId, List<JobRow> jobs) {
+            super(workBookId);
+            this.jobs = jobs;
+        }
+
+        @SuppressWarnings("SqlResolve")
+        @Override
+        public void run(Connection db) throws SQLException {
+            PreparedStatement delete = prepare(db, "DELETE FROM jobs WHERE work_book_id=?;");
+            delete.setLong(1, workBookId);
+            delete.executeUpdate();
+
+            if (jobs != null) {
+                PreparedStatement insert = prepare(db, "INSERT INTO jobs VALUES (?, ?, ?, ?, ?, ?, ?, ?);");
+                for (JobRow job : jobs) {
+                    setJob(insert, workBookId, job);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+
+            PreparedStatement migrated = prepare(db, jobs != null ? "INSERT OR IGNORE INTO migrated_work_books VALUES (?);" :
+                                                             "DELETE FROM migrated_work_books WHERE work_book_id=?;");
+            migrated.setLong(1, workBookId);
+            migrated.executeUpdate();
+        }
+
+        @Override
+        void apply(Map<Long, JobRow> jobs) {
+            jobs.clear();
+            if (this.jobs != null) {
+                for (JobRow job : this.jobs) {
+                    jobs.put(job.itemId, job);
+                }
+            }
+        }
+    }
+
+    /**
+     * Completed jobs for one crafter and skill within an hour.
+     */
+    public static class JobRollup {
+        public final long hour;
+        public final long crafterId;
+        public final int skillId;
+        public final int jobsCompleted;
+        public final long coinsEarned;
+        private final int timedJobs;
+        private final long totalTimeToDone;
+
+        private JobRollup(long hour, long crafterId, int skillId, int jobsCompleted, long coinsEarned, int timedJobs, long totalTimeToDone) {
+            this.hour = hour;
+            this.crafterId = crafterId;
+            this.skillId = skillId;
+            this.jobsCompleted = jobsCompleted;
+            this.coinsEarned = coinsEarned;
+            this.timedJobs = timedJobs;
+            this.totalTimeToDone = totalTimeToDone;
+        }
+
+        /**
+         * Mean milliseconds from accepting a job to it being done, or -1 if none were accepted whilst recording.
+         */
+        public long getMeanTimeToDone() {
+            return timedJobs == 0 ? -1 : totalTimeToDone / timedJobs;
+        }
+    }
+
     public static class FailedToSaveSkills extends WurmServerException {
         private FailedToSaveSkills() {
             super("An error occurred when attempting to save Crafter skills.");
@@ -31,118 +401,526 @@ public class CrafterDatabase {
     }
 
     private static void init() throws SQLException {
-        try (Connection conn = DriverManager.getConnection(dbString)) {
-            conn.prepareStatement("CREATE TABLE IF NOT EXISTS saved_skills (" +
-                    "contract_id INTEGER," +
-                    "skill_id INTEGER," +
-                    "skill_level REAL," +
-                    "UNIQUE (contract_id, skill_id) ON CONFLICT REPLACE" +
-                    ");").execute();
+        closeConnection();
+        Migrations.migrate(getConnection(), Migrations.all);
 
-            conn.prepareStatement("CREATE TABLE IF NOT EXISTS donated_tools (" +
-                    "crafter_id INTEGER," +
-                    "item_id INTEGER," +
-                    "UNIQUE (crafter_id, item_id) ON CONFLICT REPLACE" +
-                    ");").execute();
+        synchronized (givenToolsLock) {
+            givenTools = null;
+        }
+        synchronized (migratedWorkBooksLock) {
+            migratedWorkBooks = null;
         }
-
         created = true;
     }
 
-    private static void execute(Execute execute) throws SQLException {
-        Connection db = null;
-        try {
-            if (dbString.isEmpty())
-                dbString = "jdbc:sqlite:" + Constants.dbHost + "/sqlite/" + CrafterMod.dbName;
-            if (!created) {
-                init();
+    private static Connection getConnection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = DriverManager.getConnection(dbString);
+            try (Statement statement = connection.createStatement()) {
+                // Commits only append to the log rather than rewriting pages, and are only synced at checkpoints.
+                statement.execute("PRAGMA journal_mode=WAL;");
+                statement.execute("PRAGMA synchronous=NORMAL;");
             }
-            db = DriverManager.getConnection(dbString);
+        }
+        return connection;
+    }
+
+    private static synchronized void execute(Execute execute) throws SQLException {
+        if (dbString.isEmpty())
+            dbString = "jdbc:sqlite:" + Constants.dbHost + "/sqlite/" + CrafterMod.dbName;
+        if (!created) {
+            init();
+        }
+        Connection db = getConnection();
+        boolean committed = false;
+        try {
             execute.run(db);
+            committed = true;
         } finally {
+            // Leave the shared connection as it was found for the next call.
+            if (!db.getAutoCommit()) {
+                try {
+                    if (!committed)
+                        db.rollback();
+                    db.setAutoCommit(true);
+                } catch (SQLException e1) {
+                    logger.warning("Could not reset connection to database.");
+                    e1.printStackTrace();
+                    closeConnection();
+                }
+            }
+        }
+    }
+
+    // Opens the read connection if it is not already.  Creates the database first if needed, on the write connection.
+    private static void read(Execute execute) throws SQLException {
+        if (!created)
+            execute(db -> {});
+        synchronized (readLock) {
+            if (readConnection == null || readConnection.isClosed()) {
+                readConnection = DriverManager.getConnection(dbString);
+                try (Statement statement = readConnection.createStatement()) {
+                    statement.execute("PRAGMA query_only=1;");
+                }
+            }
+            execute.run(readConnection);
+        }
+    }
+
+    // Reads, then passes unwritten to each write that has not been committed yet.  Reads again if a batch was committed
+    // in between, as the read may have been from before it.  So read must start from nothing each time.
+    private static void read(Execute read, BiConsumer<Object, WriteQueue.Write> unwritten) throws SQLException {
+        while (true) {
+            long written = writes.batchesWritten();
+            read(read);
+            if (writes.forEachUnwritten(written, unwritten))
+                return;
+        }
+    }
+
+    private static PreparedStatement prepare(Connection db, String sql) throws SQLException {
+        Map<String, PreparedStatement> cache = db == readConnection ? readStatements : statements;
+        PreparedStatement ps = cache.get(sql);
+        if (ps == null) {
+            ps = db.prepareStatement(sql);
+            cache.put(sql, ps);
+        } else {
+            ps.clearParameters();
+            ps.clearBatch();
+        }
+        return ps;
+    }
+
+    private static void writeBatch(Collection<WriteQueue.Write> batch) throws SQLException {
+        execute(db -> {
+            db.setAutoCommit(false);
+            for (WriteQueue.Write write : batch) {
+                write.run(db);
+            }
+            db.commit();
+        });
+    }
+
+    // Queued for the writer thread if async_database_writes is set, otherwise written before returning.
+    private static void write(Map<RowKey, WriteQueue.Write> toWrite) throws SQLException {
+        if (CrafterMod.asyncDatabaseWrites()) {
+            toWrite.forEach(writes::add);
+        } else {
+            writeBatch(toWrite.values());
+        }
+    }
+
+    /**
+     * Waits for any queued writes to be committed.
+     */
+    public static void flush() {
+        writeWaitingSkills();
+        writeJobEvents(true);
+        writes.flush();
+    }
+
+    /**
+     * Writes any queued changes and closes the shared connection, it will be opened again if needed.  Called at server
+     * shutdown.
+     */
+    public static void close() {
+        writeWaitingSkills();
+        writeJobEvents(true);
+        writes.shutdown();
+        closeConnection();
+    }
+
+    private static synchronized void closeConnection() {
+        close(statements, connection);
+        connection = null;
+        synchronized (readLock) {
+            close(readStatements, readConnection);
+            readConnection = null;
+        }
+    }
+
+    private static void close(Map<String, PreparedStatement> statements, Connection db) {
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                logger.warning("Could not close statement.");
+                e.printStackTrace();
+            }
+        }
+        statements.clear();
+        if (db != null) {
             try {
-                if (db != null)
-                    db.close();
-            } catch (SQLException e1) {
+                db.close();
+            } catch (SQLException e) {
                 logger.warning("Could not close connection to database.");
-                e1.printStackTrace();
+                e.printStackTrace();
             }
         }
     }
 
-    @SuppressWarnings("SqlResolve")
     public static Map<Integer, Double> loadSkillsFor(Item contract) throws SQLException {
-        Map<Integer, Double> skills = new HashMap<>();
+        Map<Integer, Double> skills = loadSkillsForAll(Collections.singletonList(contract)).get(contract.getWurmId());
+        return skills != null ? skills : new HashMap<>();
+    }
 
-        execute(db -> {
-            PreparedStatement ps = db.prepareStatement("SELECT skill_id, skill_level FROM saved_skills WHERE contract_id=?;");
-            ps.setLong(1, contract.getWurmId());
-            ResultSet rs = ps.executeQuery();
+    /**
+     * Loads the saved skills for each contract, keyed by contract id.  Contracts without saved skills are not included.
+     */
+    @SuppressWarnings("SqlResolve")
+    public static Map<Long, Map<Integer, Double>> loadSkillsForAll(Collection<Item> contracts) throws SQLException {
+        Map<Long, Map<Integer, Double>> skills = new HashMap<>();
+        if (contracts.isEmpty())
+            return skills;
 
-            while (rs.next()) {
-                skills.put(rs.getInt(1), rs.getDouble(2));
+        List<Item> all = new ArrayList<>(contracts);
+        Set<Long> ids = all.stream().map(Item::getWurmId).collect(Collectors.toSet());
+        read(db -> {
+            skills.clear();
+            for (int start = 0; start < all.size(); start += MAX_IDS_PER_QUERY) {
+                List<Item> chunk = all.subList(start, Math.min(start + MAX_IDS_PER_QUERY, all.size()));
+                StringBuilder sql = new StringBuilder("SELECT contract_id, skill_id, skill_level FROM saved_skills WHERE contract_id IN (");
+                for (int i = 0; i < chunk.size(); ++i) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(");");
+
+                // Only full chunks are cached, as the last is usually a different length each time.
+                PreparedStatement ps = chunk.size() == MAX_IDS_PER_QUERY ? prepare(db, sql.toString()) : db.prepareStatement(sql.toString());
+                try {
+                    for (int i = 0; i < chunk.size(); ++i) {
+                        ps.setLong(i + 1, chunk.get(i).getWurmId());
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            skills.computeIfAbsent(rs.getLong(1), k -> new HashMap<>()).put(rs.getInt(2), rs.getDouble(3));
+                        }
+                    }
+                } finally {
+                    if (chunk.size() != MAX_IDS_PER_QUERY)
+                        ps.close();
+                }
             }
+        }, (key, write) -> {
+            if (write instanceof SkillsWrite && ids.contains(((SkillsWrite)write).contractId))
+                skills.computeIfAbsent(((SkillsWrite)write).contractId, k -> new HashMap<>()).putAll(((SkillsWrite)write).skills);
         });
+        synchronized (waitingSkills) {
+            for (SkillsWrite write : waitingSkills.values()) {
+                if (ids.contains(write.contractId))
+                    skills.computeIfAbsent(write.contractId, k -> new HashMap<>()).putAll(write.skills);
+            }
+        }
 
         return skills;
     }
 
-    @SuppressWarnings("SqlResolve")
-    public static void saveSkillsFor(Creature crafter, Item writ) throws FailedToSaveSkills {
+    /**
+     * Saves the skills of the crafter against their writ with any others saved before the next server poll, see
+     * writeWaitingSkills.  They are copied now, so the crafter may be destroyed straight after.
+     */
+    public static void saveSkillsFor(Creature crafter, Item writ) {
+        SkillsWrite write = new SkillsWrite(crafter, writ);
+        synchronized (waitingSkills) {
+            waitingSkills.remove(write.contractId);
+            waitingSkills.put(write.contractId, write);
+        }
+    }
+
+    /**
+     * Writes skills saved since the last call as a single batch.  Called every server poll.
+     */
+    public static void writeWaitingSkills() {
+        List<SkillsWrite> waiting;
+        synchronized (waitingSkills) {
+            if (waitingSkills.isEmpty())
+                return;
+            waiting = new ArrayList<>(waitingSkills.values());
+            waitingSkills.clear();
+        }
+
+        try {
+            writeSkills(waiting);
+        } catch (SQLException e) {
+            logger.warning("Failed to save skills for " + waiting.size() + " crafter(s).");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves the skills of each crafter against their writ, as a single batch in one transaction.
+     */
+    public static void saveSkillsForAll(Map<Creature, Item> writs) throws FailedToSaveSkills {
         try {
-            execute(db -> {
-                db.setAutoCommit(false);
-                //noinspection SqlResolve
-                for (Map.Entry<Integer, Skill> entry : crafter.getSkills().getSkillTree().entrySet()) {
-                    PreparedStatement ps = db.prepareStatement("INSERT INTO saved_skills VALUES (?, ?, ?);");
-                    ps.setLong(1, writ.getWurmId());
-                    ps.setInt(2, entry.getKey());
-                    ps.setDouble(3, entry.getValue().getKnowledge());
-                    ps.execute();
+            List<SkillsWrite> toWrite = new ArrayList<>();
+            for (Map.Entry<Creature, Item> writ : writs.entrySet()) {
+                toWrite.add(new SkillsWrite(writ.getKey(), writ.getValue()));
+            }
+            // Older skills still waiting for the same writs would otherwise be written over these.
+            synchronized (waitingSkills) {
+                for (SkillsWrite write : toWrite) {
+                    waitingSkills.remove(write.contractId);
                 }
-                db.commit();
-            });
+            }
+            writeSkills(toWrite);
         } catch (SQLException e) {
-            logger.warning("Failed to update tag for " + crafter.getName() + ".");
+            logger.warning("Failed to save skills for " + writs.keySet().stream().map(Creature::getName).collect(Collectors.joining(", ")) + ".");
             e.printStackTrace();
             throw new FailedToSaveSkills();
         }
     }
 
-    @SuppressWarnings("SqlResolve")
+    private static void writeSkills(Collection<SkillsWrite> skills) throws SQLException {
+        Map<RowKey, WriteQueue.Write> toWrite = new LinkedHashMap<>();
+        for (SkillsWrite write : skills) {
+            toWrite.put(new RowKey("saved_skills", write.contractId, 0), write);
+        }
+        write(toWrite);
+    }
+
     public static Set<Long> getGivenToolsFor(Creature crafter) throws SQLException {
-        Set<Long> tools = new HashSet<>();
+        synchronized (givenToolsLock) {
+            Set<Long> tools = loadGivenTools().get(crafter.getWurmId());
+            return tools != null ? new HashSet<>(tools) : new HashSet<>();
+        }
+    }
 
-        execute(db -> {
-            PreparedStatement ps = db.prepareStatement("SELECT item_id FROM donated_tools WHERE crafter_id=?;");
-            ps.setLong(1, crafter.getWurmId());
-            ResultSet rs = ps.executeQuery();
+    /**
+     * Reads the given tools for every crafter in one query, if not already loaded.  Otherwise the first lookup does it.
+     */
+    public static void preloadGivenTools() throws SQLException {
+        synchronized (givenToolsLock) {
+            loadGivenTools();
+        }
+    }
+
+    // Must hold givenToolsLock.  Only waits for the database the first time.
+    @SuppressWarnings("SqlResolve")
+    private static Map<Long, Set<Long>> loadGivenTools() throws SQLException {
+        if (givenTools == null || !created) {
+            Map<Long, Set<Long>> all = new HashMap<>();
+            read(db -> {
+                all.clear();
+                try (Statement statement = db.createStatement();
+                     ResultSet rs = statement.executeQuery("SELECT crafter_id, item_id FROM donated_tools;")) {
+                    while (rs.next()) {
+                        all.computeIfAbsent(rs.getLong(1), k -> new HashSet<>()).add(rs.getLong(2));
+                    }
+                }
+            }, (key, write) -> {
+                if (write instanceof GivenToolWrite)
+                    updateGivenTools(all, (GivenToolWrite)write);
+            });
+            givenTools = all;
+        }
+        return givenTools;
+    }
 
-            while (rs.next()) {
-                tools.add(rs.getLong(1));
+    private static void updateGivenTools(Map<Long, Set<Long>> tools, GivenToolWrite write) {
+        if (write.given) {
+            tools.computeIfAbsent(write.crafterId, k -> new HashSet<>()).add(write.itemId);
+        } else {
+            Set<Long> forCrafter = tools.get(write.crafterId);
+            if (forCrafter != null) {
+                forCrafter.remove(write.itemId);
+                if (forCrafter.isEmpty())
+                    tools.remove(write.crafterId);
             }
-        });
+        }
+    }
 
-        return tools;
+    public static void addGivenToolFor(Creature crafter, Item tool) throws SQLException {
+        writeGivenTool(new GivenToolWrite(crafter.getWurmId(), tool.getWurmId(), true));
     }
 
+    public static void removeGivenToolFor(Creature crafter, Item tool) throws SQLException {
+        writeGivenTool(new GivenToolWrite(crafter.getWurmId(), tool.getWurmId(), false));
+    }
+
+    private static void writeGivenTool(GivenToolWrite write) throws SQLException {
+        synchronized (givenToolsLock) {
+            if (givenTools != null)
+                updateGivenTools(givenTools, write);
+        }
+        write(Collections.singletonMap(new RowKey("donated_tools", write.crafterId, write.itemId), write));
+    }
+
+    /**
+     * Loads the jobs for a work book in the order they were added.
+     * Returns false if the work book has not been migrated from inscriptions yet.
+     */
     @SuppressWarnings("SqlResolve")
-    public static void addGivenToolFor(Creature crafter, Item tool) throws SQLException {
-        execute(db -> {
-            PreparedStatement ps = db.prepareStatement("INSERT INTO donated_tools VALUES(?, ?);");
-            ps.setLong(1, crafter.getWurmId());
-            ps.setLong(2, tool.getWurmId());
-            ps.executeUpdate();
+    public static boolean loadJobsFor(long workBookId, LoadJob loadJob) throws SQLException {
+        if (!isMigrated(workBookId))
+            return false;
+
+        Map<Long, JobRow> jobs = new LinkedHashMap<>();
+        read(db -> {
+            jobs.clear();
+            PreparedStatement ps = prepare(db, "SELECT customer_id, item_id, target_ql, mail, price, done, donation FROM jobs WHERE work_book_id=? ORDER BY rowid;");
+            ps.setLong(1, workBookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    jobs.put(rs.getLong(2), new JobRow(rs.getLong(1), rs.getLong(2), rs.getFloat(3), rs.getBoolean(4), rs.getLong(5), rs.getBoolean(6), rs.getBoolean(7)));
+                }
+            }
+        }, (key, write) -> {
+            if (write instanceof JobStoreWrite && ((JobStoreWrite)write).workBookId == workBookId)
+                ((JobStoreWrite)write).apply(jobs);
         });
+
+        for (JobRow job : jobs.values()) {
+            loadJob.load(job.customerId, job.itemId, job.targetQL, job.mailWhenDone, job.priceCharged, job.done, job.donation);
+        }
+        return true;
     }
 
+    /**
+     * Returns true if the work book has jobs in the database, whatever job_storage is set to.
+     */
     @SuppressWarnings("SqlResolve")
-    public static void removeGivenToolFor(Creature crafter, Item tool) throws SQLException {
-        execute(db -> {
-            PreparedStatement ps = db.prepareStatement("DELETE FROM donated_tools WHERE crafter_id=? AND item_id=?;");
-            ps.setLong(1, crafter.getWurmId());
-            ps.setLong(2, tool.getWurmId());
-            ps.executeUpdate();
+    public static boolean isMigrated(long workBookId) throws SQLException {
+        synchronized (migratedWorkBooksLock) {
+            if (migratedWorkBooks == null || !created) {
+                Set<Long> all = new HashSet<>();
+                read(db -> {
+                    all.clear();
+                    try (Statement statement = db.createStatement();
+                         ResultSet rs = statement.executeQuery("SELECT work_book_id FROM migrated_work_books;")) {
+                        while (rs.next()) {
+                            all.add(rs.getLong(1));
+                        }
+                    }
+                }, (key, write) -> {
+                    if (write instanceof JobsWrite) {
+                        if (((JobsWrite)write).jobs != null)
+                            all.add(((JobsWrite)write).workBookId);
+                        else
+                            all.remove(((JobsWrite)write).workBookId);
+                    }
+                });
+                migratedWorkBooks = all;
+            }
+            return migratedWorkBooks.contains(workBookId);
+        }
+    }
+
+    private static void setMigrated(long workBookId, boolean migrated) {
+        synchronized (migratedWorkBooksLock) {
+            if (migratedWorkBooks != null) {
+                if (migrated)
+                    migratedWorkBooks.add(workBookId);
+                else
+                    migratedWorkBooks.remove(workBookId);
+            }
+        }
+    }
+
+    // Queued for the writer thread along with other writes if async_database_writes is set, so the server thread never
+    // waits on the write connection.  Then failures are only logged, rather than thrown.
+    private static void writeJobs(JobStoreWrite write) throws SQLException {
+        write(Collections.singletonMap(new RowKey("jobs", jobChanges.incrementAndGet(), 0), write));
+    }
+
+    /**
+     * Replaces any jobs already stored for the work book, as pages are only written whilst stored if the database could
+     * not be used.
+     */
+    public static void migrateJobsFor(long workBookId, Collection<Job> jobs) throws SQLException {
+        writeJobs(new JobsWrite(workBookId, jobs.stream().map(JobRow::new).collect(Collectors.toList())));
+        setMigrated(workBookId, true);
+    }
+
+    /**
+     * Removes all jobs for a work book, and the record that it was migrated, so it is read from inscriptions again.
+     */
+    public static void removeJobsFor(long workBookId) throws SQLException {
+        writeJobs(new JobsWrite(workBookId, null));
+        setMigrated(workBookId, false);
+    }
+
+    public static void addJob(long workBookId, Job job) throws SQLException {
+        writeJobs(new JobWrite(workBookId, JobChange.added, new JobRow(job)));
+    }
+
+    public static void setJobDone(long workBookId, Job job) throws SQLException {
+        writeJobs(new JobWrite(workBookId, JobChange.done, new JobRow(job)));
+    }
+
+    public static void removeJob(long workBookId, long itemId) throws SQLException {
+        writeJobs(new JobWrite(workBookId, JobChange.removed, new JobRow(0, itemId, 0, false, 0, false, false)));
+    }
+
+    private static void setJob(PreparedStatement ps, long workBookId, JobRow job) throws SQLException {
+        ps.setLong(1, workBookId);
+        ps.setLong(2, job.customerId);
+        ps.setLong(3, job.itemId);
+        ps.setFloat(4, job.targetQL);
+        ps.setBoolean(5, job.mailWhenDone);
+        ps.setLong(6, job.priceCharged);
+        ps.setBoolean(7, job.done);
+        ps.setBoolean(8, job.donation);
+    }
+
+    /**
+     * Records a stage of a customer's job if record_job_events is set.  Events are written in batches, see
+     * writeWaitingJobEvents.
+     */
+    public static void recordJobEvent(JobEvent event, Creature crafter, Job job) {
+        if (!CrafterMod.recordJobEvents() || job.isDonation())
+            return;
+
+        boolean full;
+        synchronized (jobEvents) {
+            jobEvents.add(new JobEventRow(clock.millis(), crafter.getWurmId(), job, event));
+            full = jobEvents.size() >= JOB_EVENTS_PER_BATCH;
+        }
+        if (full)
+            writeJobEvents(true);
+    }
+
+    /**
+     * Writes recorded job events if the oldest has waited long enough.  Called every server poll.
+     */
+    public static void writeWaitingJobEvents() {
+        writeJobEvents(false);
+    }
+
+    private static void writeJobEvents(boolean all) {
+        List<JobEventRow> rows;
+        synchronized (jobEvents) {
+            if (jobEvents.isEmpty() || (!all && clock.millis() - jobEvents.get(0).time < MAX_JOB_EVENT_WAIT))
+                return;
+            rows = new ArrayList<>(jobEvents);
+            jobEvents.clear();
+        }
+
+        try {
+            write(Collections.singletonMap(new RowKey("job_events", jobEventBatches.incrementAndGet(), 0), new JobEventsWrite(rows)));
+        } catch (SQLException e) {
+            logger.warning("Failed to write " + rows.size() + " job event(s).");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Loads the rollups for hours starting from from up to, but not including, to.  Hours are the millisecond times
+     * they start at, ordered by hour then crafter id then skill id.
+     */
+    @SuppressWarnings("SqlResolve")
+    public static List<JobRollup> getJobRollups(long from, long to) throws SQLException {
+        List<JobRollup> rollups = new ArrayList<>();
+        read(db -> {
+            try (PreparedStatement ps = db.prepareStatement("SELECT * FROM job_rollups WHERE hour>=? AND hour<? ORDER BY hour, crafter_id, skill_id;")) {
+                ps.setLong(1, from);
+                ps.setLong(2, to);
+                ResultSet rs = ps.executeQuery();
+
+                while (rs.next()) {
+                    rollups.add(new JobRollup(rs.getLong(1), rs.getLong(2), rs.getInt(3), rs.getInt(4), rs.getLong(5), rs.getInt(6), rs.getLong(7)));
+                }
+            }
         });
+        return rollups;
     }
 }
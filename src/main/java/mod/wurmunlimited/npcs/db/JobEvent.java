@@ -0,0 +1,18 @@
+package mod.wurmunlimited.npcs.db;
+
+// Stages of a job recorded in job_events when record_job_events is set.  The id is what is stored, so existing ids must
+// not be changed.
+public enum JobEvent {
+    accepted(0),
+    first_improve(1),
+    done(2),
+    mailed(3),
+    collected(4),
+    refunded(5);
+
+    final int id;
+
+    JobEvent(int id) {
+        this.id = id;
+    }
+}
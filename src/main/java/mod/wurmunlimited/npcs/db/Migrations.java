@@ -0,0 +1,130 @@
+package mod.wurmunlimited.npcs.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+// Schema changes for crafter.db.  The number of migrations applied is stored in schema_version, and any after that are
+// run in order at start up, each in its own transaction.  Only ever add new migrations to the end of the list.
+class Migrations {
+    private static final Logger logger = Logger.getLogger(Migrations.class.getName());
+
+    interface Migration {
+        void apply(Statement statement) throws SQLException;
+    }
+
+    static final List<Migration> all = Arrays.asList(
+            // 1 - Original tables, databases from before schema_version already have them.
+            statement -> {
+                statement.execute("CREATE TABLE IF NOT EXISTS saved_skills (" +
+                        "contract_id INTEGER," +
+                        "skill_id INTEGER," +
+                        "skill_level REAL," +
+                        "UNIQUE (contract_id, skill_id) ON CONFLICT REPLACE" +
+                        ");");
+
+                statement.execute("CREATE TABLE IF NOT EXISTS donated_tools (" +
+                        "crafter_id INTEGER," +
+                        "item_id INTEGER," +
+                        "UNIQUE (crafter_id, item_id) ON CONFLICT REPLACE" +
+                        ");");
+            },
+            // 2 - Jobs stored in the database, job_storage=database.
+            statement -> {
+                statement.execute("CREATE TABLE IF NOT EXISTS jobs (" +
+                        "work_book_id INTEGER," +
+                        "customer_id INTEGER," +
+                        "item_id INTEGER," +
+                        "target_ql REAL," +
+                        "mail INTEGER," +
+                        "price INTEGER," +
+                        "done INTEGER," +
+                        "donation INTEGER," +
+                        "UNIQUE (work_book_id, item_id) ON CONFLICT REPLACE" +
+                        ");");
+
+                statement.execute("CREATE TABLE IF NOT EXISTS migrated_work_books (" +
+                        "work_book_id INTEGER PRIMARY KEY" +
+                        ");");
+            },
+            // 3 - Lookup indexes, no longer created, see 5.
+            statement -> {},
+            // 4 - Job history, record_job_events.
+            statement -> {
+                statement.execute("CREATE TABLE IF NOT EXISTS job_events (" +
+                        "time INTEGER," +
+                        "crafter_id INTEGER," +
+                        "customer_id INTEGER," +
+                        "item_id INTEGER," +
+                        "skill_id INTEGER," +
+                        "event INTEGER," +
+                        "price INTEGER" +
+                        ");");
+
+                statement.execute("CREATE INDEX IF NOT EXISTS job_events_time ON job_events (time);");
+                statement.execute("CREATE INDEX IF NOT EXISTS job_events_item_id ON job_events (item_id, event);");
+
+                statement.execute("CREATE TABLE IF NOT EXISTS job_rollups (" +
+                        "hour INTEGER," +
+                        "crafter_id INTEGER," +
+                        "skill_id INTEGER," +
+                        "jobs_completed INTEGER," +
+                        "coins_earned INTEGER," +
+                        "timed_jobs INTEGER," +
+                        "total_time_to_done INTEGER," +
+                        "PRIMARY KEY (hour, crafter_id, skill_id)" +
+                        ");");
+            },
+            // 5 - Drop the single column indexes from 2 and 3.  Each UNIQUE index starts with the same column, so already
+            // serves those lookups, and the extra index only slowed down writes.
+            statement -> {
+                statement.execute("DROP INDEX IF EXISTS jobs_work_book_id;");
+                statement.execute("DROP INDEX IF EXISTS saved_skills_contract_id;");
+                statement.execute("DROP INDEX IF EXISTS donated_tools_crafter_id;");
+            }
+    );
+
+    @SuppressWarnings("SqlResolve")
+    static int getVersion(Connection db) throws SQLException {
+        try (Statement statement = db.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_version (version INTEGER);");
+            ResultSet rs = statement.executeQuery("SELECT version FROM schema_version;");
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // Throws if a migration fails, after rolling back that migration.  Earlier migrations stay applied.
+    @SuppressWarnings("SqlResolve")
+    static void migrate(Connection db, List<Migration> migrations) throws SQLException {
+        int version = getVersion(db);
+        if (version > migrations.size()) {
+            logger.warning("crafter.db is from a newer version of the mod (schema " + version + "), some features may not work.");
+            return;
+        }
+
+        boolean autoCommit = db.getAutoCommit();
+        db.setAutoCommit(false);
+        try {
+            for (; version < migrations.size(); ++version) {
+                try (Statement statement = db.createStatement();
+                     PreparedStatement ps = db.prepareStatement(version == 0 ? "INSERT INTO schema_version VALUES (?);" : "UPDATE schema_version SET version=?;")) {
+                    migrations.get(version).apply(statement);
+                    ps.setInt(1, version + 1);
+                    ps.executeUpdate();
+                    db.commit();
+                } catch (SQLException e) {
+                    db.rollback();
+                    logger.warning("Could not update crafter.db to schema " + (version + 1) + ".");
+                    throw e;
+                }
+            }
+        } finally {
+            db.setAutoCommit(autoCommit);
+        }
+    }
+}
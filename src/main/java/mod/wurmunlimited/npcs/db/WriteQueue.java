@@ -0,0 +1,169 @@
+package mod.wurmunlimited.npcs.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+// Database writes run on a separate thread, so a slow disk holds up the writer rather than the server.  Each write has a
+// key for the row it changes, and a newer write replaces any write with the same key that has not started yet, so only
+// the latest change to a row is written.  Everything waiting is written together as one batch.
+class WriteQueue {
+    private static final Logger logger = Logger.getLogger(WriteQueue.class.getName());
+    private final Object lock = new Object();
+    private final int capacity;
+    private final BatchWriter writer;
+    private Map<Object, Write> pending = new LinkedHashMap<>();
+    // The batch currently being written, still needed for reads until it is committed.
+    private Map<Object, Write> writing = Collections.emptyMap();
+    // Batches finished so far, so reads can tell whether one was committed whilst they were reading.
+    private long batchesWritten = 0;
+    private Thread thread = null;
+    private boolean stopping = false;
+
+    interface Write {
+        void run(Connection db) throws SQLException;
+    }
+
+    interface BatchWriter {
+        void write(Collection<Write> batch) throws SQLException;
+    }
+
+    WriteQueue(int capacity, BatchWriter writer) {
+        this.capacity = capacity;
+        this.writer = writer;
+    }
+
+    // Only waits if the queue is full of writes to different rows.
+    void add(Object key, Write write) {
+        synchronized (lock) {
+            while (pending.size() >= capacity && !pending.containsKey(key)) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            pending.put(key, write);
+            if (thread == null) {
+                thread = new Thread(this::run, "Crafter database writer");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    // Writes that have not been committed yet, oldest first, so reads can include them.
+    void forEachUnwritten(BiConsumer<Object, Write> consumer) {
+        synchronized (lock) {
+            writing.forEach(consumer);
+            pending.forEach(consumer);
+        }
+    }
+
+    // As forEachUnwritten, but only if no batch has finished since batchesWritten was called.  Otherwise returns false
+    // without calling the consumer, as a read made in between may or may not include that batch.
+    boolean forEachUnwritten(long since, BiConsumer<Object, Write> consumer) {
+        synchronized (lock) {
+            if (batchesWritten != since)
+                return false;
+            writing.forEach(consumer);
+            pending.forEach(consumer);
+            return true;
+        }
+    }
+
+    long batchesWritten() {
+        synchronized (lock) {
+            return batchesWritten;
+        }
+    }
+
+    int size() {
+        synchronized (lock) {
+            return writing.size() + pending.size();
+        }
+    }
+
+    // Waits until every write added so far has been committed, or has failed.
+    void flush() {
+        synchronized (lock) {
+            while (thread != null && thread != Thread.currentThread() && (!pending.isEmpty() || !writing.isEmpty())) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Writes everything still waiting then stops the writer thread.  Adding another write starts it again.
+    void shutdown() {
+        Thread current;
+        synchronized (lock) {
+            stopping = true;
+            current = thread;
+            lock.notifyAll();
+        }
+
+        if (current != null && current != Thread.currentThread()) {
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (lock) {
+            stopping = false;
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Collection<Write> batch;
+            synchronized (lock) {
+                while (pending.isEmpty() && !stopping) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // Treated as a shutdown, nothing is waiting to be written.
+                        break;
+                    }
+                }
+
+                if (pending.isEmpty()) {
+                    thread = null;
+                    lock.notifyAll();
+                    return;
+                }
+                writing = pending;
+                pending = new LinkedHashMap<>();
+                batch = writing.values();
+                lock.notifyAll();
+            }
+
+            try {
+                writer.write(batch);
+            } catch (SQLException | RuntimeException e) {
+                logger.warning("Error writing " + batch.size() + " changes to the database, changes not saved:");
+                e.printStackTrace();
+            }
+
+            synchronized (lock) {
+                writing = Collections.emptyMap();
+                ++batchesWritten;
+                lock.notifyAll();
+            }
+        }
+    }
+}
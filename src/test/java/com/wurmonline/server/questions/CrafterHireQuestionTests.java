@@ -62,6 +62,7 @@ class CrafterHireQuestionTests {
 
     @AfterEach
     void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        CrafterDatabase.close();
         File file = new File("./sqlite/" + dbName);
         if (file.exists()) {
             //noinspection ResultOfMethodCallIgnored
@@ -419,7 +420,7 @@ class CrafterHireQuestionTests {
     }
 
     @Test
-    void testSkillsLoadedProperly() throws CrafterDatabase.FailedToSaveSkills {
+    void testSkillsLoadedProperly() {
         assert CrafterMod.allowSavedSkills();
         Creature tempCrafter = factory.createNewCrafter(owner, new CrafterType(CrafterType.allSkills), 100);
         tempCrafter.getSkills().getSkillOrLearn(SkillList.SMITHING_GOLDSMITHING).setKnowledge(98.0, false);
@@ -437,7 +438,7 @@ class CrafterHireQuestionTests {
     }
 
     @Test
-    void testSkillsLoadedProperlyDoesNotExist() throws CrafterDatabase.FailedToSaveSkills, NoSuchSkillException {
+    void testSkillsLoadedProperlyDoesNotExist() throws NoSuchSkillException {
         assert CrafterMod.allowSavedSkills();
         new CrafterHireQuestion(owner, contract.getWurmId()).answer(generateProperties(new Integer[] { SkillList.SMITHING_GOLDSMITHING }));
 
@@ -446,7 +447,7 @@ class CrafterHireQuestionTests {
     }
 
     @Test
-    void testSkillsNotLoadedIfDisabledEvenIfExists() throws CrafterDatabase.FailedToSaveSkills, NoSuchSkillException {
+    void testSkillsNotLoadedIfDisabledEvenIfExists() throws NoSuchSkillException {
         Properties options = new Properties();
         options.setProperty("allow_saved_skills", "false");
         CrafterMod.mod.configure(options);
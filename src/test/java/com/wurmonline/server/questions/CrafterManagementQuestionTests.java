@@ -83,6 +83,7 @@ class CrafterManagementQuestionTests {
 
     @AfterEach
     void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        CrafterDatabase.close();
         File file = new File("./sqlite/" + dbName);
         if (file.exists()) {
             //noinspection ResultOfMethodCallIgnored
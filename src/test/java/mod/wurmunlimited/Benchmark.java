@@ -0,0 +1,40 @@
+package mod.wurmunlimited;
+
+import java.util.function.Supplier;
+
+/**
+ * Rough timings for the benchmark tests, run with "gradle benchmark".  Results are printed rather than asserted as
+ * they depend on the machine.
+ */
+public class Benchmark {
+    private static final int warmUpIterations = 10_000;
+    // Stops the JIT from removing the work being timed.
+    private static volatile Object sink;
+
+    public static double nanosPerOperation(int iterations, Supplier<?> operation) {
+        return nanosPerOperation(warmUpIterations, iterations, operation);
+    }
+
+    public static double nanosPerOperation(int warmUp, int iterations, Supplier<?> operation) {
+        for (int i = 0; i < warmUp; ++i) {
+            sink = operation.get();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            sink = operation.get();
+        }
+        return (System.nanoTime() - start) / (double)iterations;
+    }
+
+    public static double compare(String name, int iterations, Supplier<?> before, Supplier<?> after) {
+        return compare(name, warmUpIterations, iterations, before, after);
+    }
+
+    public static double compare(String name, int warmUp, int iterations, Supplier<?> before, Supplier<?> after) {
+        double beforeNanos = nanosPerOperation(warmUp, iterations, before);
+        double afterNanos = nanosPerOperation(warmUp, iterations, after);
+        System.out.printf("%s - before %.1f ns/op, after %.1f ns/op (%.1fx)%n", name, beforeNanos, afterNanos, beforeNanos / afterNanos);
+        return beforeNanos / afterNanos;
+    }
+}
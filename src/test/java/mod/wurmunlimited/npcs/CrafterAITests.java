@@ -15,10 +15,14 @@ import com.wurmonline.shared.constants.ItemMaterials;
 import mod.wurmunlimited.npcs.craftertypes.TestItemTemplates;
 import mod.wurmunlimited.npcs.db.CrafterDatabase;
 import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.*;
 
 import static mod.wurmunlimited.Assert.didNotReceiveMessageContaining;
@@ -52,6 +56,15 @@ class CrafterAITests extends CrafterTest {
 
         assert workBook != null && lump != null && hammer != null && pelt != null && water != null && whetstone != null;
     }
+
+    @AfterEach
+    void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("idleCrafters"), false);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("forgePipelineJobs"), 0);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("prefetchImproveItems"), false);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("predictForgeHeat"), false);
+        CrafterAIData.clock = Clock.systemUTC();
+    }
     
     private void warmUp() {
         forge.setTemperature((short)100);
@@ -238,6 +251,65 @@ class CrafterAITests extends CrafterTest {
         assertEquals(1000, BehaviourDispatcher.getLastDispatchSubject().getWeightGrams());
     }
 
+    @Test
+    void testUnchangedToolNotWritten() {
+        data.tools.getPreferredTool(ItemList.hammerMetal, 10);
+        int writes = data.tools.getItemWrites();
+
+        assertEquals(hammer, data.tools.getPreferredTool(ItemList.hammerMetal, 10));
+        assertEquals(writes, data.tools.getItemWrites());
+    }
+
+    @Test
+    void testOnlyDriftedToolStateWritten() {
+        data.tools.getPreferredTool(ItemList.hammerMetal, 10);
+        int writes = data.tools.getItemWrites();
+        hammer.setDamage(10);
+
+        data.tools.getPreferredTool(ItemList.hammerMetal, 10);
+        assertEquals(0, hammer.getDamage());
+        assertEquals(writes + 1, data.tools.getItemWrites());
+
+        hammer.setWeight(1, false);
+        hammer.setQualityLevel(1);
+        data.tools.getPreferredTool(ItemList.hammerMetal, 10);
+        assertEquals(hammer.getTemplate().getWeightGrams(), hammer.getWeightGrams());
+        assertEquals(20, hammer.getQualityLevel());
+        assertEquals(writes + 3, data.tools.getItemWrites());
+    }
+
+    @Test
+    void testItemWritesCountedPerImprove() {
+        tool.creationState = (byte)2;
+        warmUp();
+        data.tools.getPreferredTool(ItemList.ironBar, tool.getCurrentQualityLevel());
+        data.tools.getPreferredTool(ItemList.hammerMetal, tool.getCurrentQualityLevel());
+        hammer.setDamage(10);
+
+        data.sendNextAction();
+        assertEquals(hammer, BehaviourDispatcher.getLastDispatchSubject());
+        assertEquals(1, data.getLastImproveItemWrites());
+    }
+
+    @Test
+    void testItemWritesForSkippedJobsNotCounted() throws WorkBook.WorkBookFull {
+        warmUp();
+        data.tools.getPreferredTool(ItemList.ironBar, tool.getCurrentQualityLevel());
+        data.tools.getPreferredTool(ItemList.hammerMetal, tool.getCurrentQualityLevel());
+        tool.setTemperature((short)0);
+        lump.setDamage(10);
+        Item item = factory.createNewItem(ItemList.pickAxe);
+        item.creationState = (byte)2;
+        item.setTemperature(CrafterAIData.targetTemperature);
+        player.getInventory().insertItem(item);
+        workBook.addJob(player.getWurmId(), item, 10, false, 100);
+
+        data.sendNextAction();
+        assertEquals(0, lump.getDamage());
+        assertEquals(hammer, BehaviourDispatcher.getLastDispatchSubject());
+        assertEquals(0, data.getLastImproveItemWrites());
+    }
+
     @Test
     void testSkillsCappedBeforeUse() {
         warmUp();
@@ -528,6 +600,187 @@ class CrafterAITests extends CrafterTest {
         assertFalse(aiData.canAction);
     }
 
+    @Test
+    void testSleepingCrafterNotPolled() throws NoSuchFieldException, IllegalAccessException {
+        CrafterAIData aiData = mock(CrafterAIData.class);
+        aiData.canAction = true;
+        when(aiData.isAsleep()).thenReturn(true);
+        ReflectionUtil.setPrivateField(crafter, Creature.class.getDeclaredField("aiData"), aiData);
+
+        crafter.getTemplate().getCreatureAI().pollCreature(crafter, 0);
+        verify(aiData, never()).sendNextAction();
+    }
+
+    @Test
+    void testCrafterDoesNotSleepByDefault() {
+        workBook.removeJob(tool);
+
+        data.sendNextAction();
+        assertFalse(data.isAsleep());
+    }
+
+    @Test
+    void testIdleCrafterSleepsWhenNothingToDo() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("idleCrafters"), true);
+        workBook.removeJob(tool);
+
+        data.sendNextAction();
+        assertTrue(data.isAsleep());
+    }
+
+    @Test
+    void testIdleCrafterDoesNotSleepWhilstHeating() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("idleCrafters"), true);
+        assert tool.isMetal();
+
+        data.sendNextAction();
+        assertTrue(forge.getItems().contains(tool));
+        assertFalse(data.isAsleep());
+    }
+
+    @Test
+    void testSleepingCrafterWakesAfterDeadline() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("idleCrafters"), true);
+        workBook.removeJob(tool);
+        CrafterAIData.clock = Clock.fixed(Instant.ofEpochMilli(0), ZoneOffset.UTC);
+        data.sendNextAction();
+        assert data.isAsleep();
+
+        CrafterAIData.clock = Clock.fixed(Instant.ofEpochMilli(CrafterMod.getIdleWakeMillis() - 1), ZoneOffset.UTC);
+        assertTrue(data.isAsleep());
+        CrafterAIData.clock = Clock.fixed(Instant.ofEpochMilli(CrafterMod.getIdleWakeMillis()), ZoneOffset.UTC);
+        assertFalse(data.isAsleep());
+    }
+
+    @Test
+    void testSleepingCrafterWokenByForgeAssigned() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("idleCrafters"), true);
+        workBook.removeJob(tool);
+        data.sendNextAction();
+        assert data.isAsleep();
+
+        data.setForge(forge);
+        assertFalse(data.isAsleep());
+    }
+
+    @Test
+    void testSleepingCrafterWokenByGivenTool() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("idleCrafters"), true);
+        workBook.removeJob(tool);
+        data.sendNextAction();
+        assert data.isAsleep();
+
+        data.tools.addGivenTool(factory.createNewItem(ItemList.hammerMetal));
+        assertFalse(data.isAsleep());
+    }
+
+    private List<Item> addMetalJobs(int count) throws WorkBook.WorkBookFull {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            Item item = factory.createNewItem(ItemList.pickAxe);
+            player.getInventory().insertItem(item);
+            workBook.addJob(player.getWurmId(), item, 10, false, 100);
+            items.add(item);
+        }
+        return items;
+    }
+
+    @Test
+    void testNextMetalJobsNotPreheatedByDefault() throws WorkBook.WorkBookFull {
+        warmUp();
+        List<Item> items = addMetalJobs(2);
+
+        data.sendNextAction();
+        assertTrue(BehaviourDispatcher.wasDispatched(tool, Actions.IMPROVE));
+        assertTrue(items.stream().noneMatch(forge.getItems()::contains));
+    }
+
+    @Test
+    void testNextMetalJobsPreheated() throws WorkBook.WorkBookFull, NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("forgePipelineJobs"), 2);
+        warmUp();
+        List<Item> items = addMetalJobs(3);
+
+        data.sendNextAction();
+        assertTrue(BehaviourDispatcher.wasDispatched(tool, Actions.IMPROVE));
+        assertTrue(forge.getItems().contains(items.get(0)));
+        assertTrue(forge.getItems().contains(items.get(1)));
+        assertFalse(forge.getItems().contains(items.get(2)));
+    }
+
+    @Test
+    void testPreheatSkipsDamagedItems() throws WorkBook.WorkBookFull, NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("forgePipelineJobs"), 1);
+        warmUp();
+        List<Item> items = addMetalJobs(2);
+        items.get(0).setDamage(10);
+
+        data.sendNextAction();
+        assertFalse(forge.getItems().contains(items.get(0)));
+        assertTrue(forge.getItems().contains(items.get(1)));
+    }
+
+    @Test
+    void testPreheatSkippedWhilstParked() throws WorkBook.WorkBookFull, NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("forgePipelineJobs"), 1);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("predictForgeHeat"), true);
+        CrafterAIData.clock = Clock.fixed(Instant.ofEpochMilli(0), ZoneOffset.UTC);
+        tool.setTemperature((short)0);
+        List<Item> items = addMetalJobs(1);
+        items.get(0).setTemperature((short)0);
+
+        data.sendNextAction();
+        assert forge.getItems().contains(items.get(0));
+        crafter.getInventory().insertItem(items.get(0));
+        data.wake();
+
+        data.sendNextAction();
+        assertFalse(forge.getItems().contains(items.get(0)));
+    }
+
+    @Test
+    void testPreheatStopsWhenForgeFull() throws WorkBook.WorkBookFull, NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("forgePipelineJobs"), 2);
+        warmUp();
+        while (forge.getItems().size() < 99) {
+            forge.insertItem(factory.createNewItem(ItemList.ironBar));
+        }
+        List<Item> items = addMetalJobs(2);
+
+        data.sendNextAction();
+        assertTrue(BehaviourDispatcher.wasDispatched(tool, Actions.IMPROVE));
+        assertTrue(forge.getItems().size() <= 100);
+        assertFalse(forge.getItems().contains(items.get(1)));
+    }
+
+    @Test
+    void testNothingPrefetchedByDefault() {
+        tool.setMaterial(ItemMaterials.MATERIAL_BRONZE);
+
+        data.prefetch(tool);
+        assertNull(data.tools.getPreferredTool(ItemList.bronzeBar, tool.getCurrentQualityLevel()));
+    }
+
+    @Test
+    void testMissingLumpPrefetched() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("prefetchImproveItems"), true);
+        tool.setMaterial(ItemMaterials.MATERIAL_BRONZE);
+
+        data.prefetch(tool);
+        Item bronzeLump = data.tools.getPreferredTool(ItemList.bronzeBar, tool.getCurrentQualityLevel());
+        assertNotNull(bronzeLump);
+        assertTrue(crafter.getInventory().getItems().contains(bronzeLump));
+    }
+
+    @Test
+    void testNothingPrefetchedIfAllPresent() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("prefetchImproveItems"), true);
+        int items = crafter.getInventory().getItemCount();
+
+        data.prefetch(tool);
+        assertEquals(items, crafter.getInventory().getItemCount());
+    }
+
     @Test
     void testAshRemovedIfAshProduceModIsUsed() {
         assert tool.isMetal();
@@ -7,6 +7,7 @@ import com.wurmonline.server.creatures.CrafterTradeHandler;
 import com.wurmonline.server.creatures.Creature;
 import com.wurmonline.server.creatures.CreatureTemplate;
 import com.wurmonline.server.creatures.CreatureTemplateIds;
+import com.wurmonline.server.creatures.TradeHandler;
 import com.wurmonline.server.items.*;
 import com.wurmonline.server.players.Player;
 import com.wurmonline.server.questions.CrafterHireQuestion;
@@ -14,11 +15,12 @@ import com.wurmonline.server.questions.CreatureCreationQuestion;
 import com.wurmonline.server.questions.Question;
 import com.wurmonline.server.skills.Skill;
 import com.wurmonline.server.skills.SkillList;
+import com.wurmonline.server.skills.Skills;
+import com.wurmonline.server.skills.SkillsFactory;
 import mod.wurmunlimited.CrafterObjectsFactory;
 import org.gotti.wurmunlimited.modloader.ReflectionUtil;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.stubbing.Answer;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
@@ -28,7 +30,6 @@ import java.util.Properties;
 import static mod.wurmunlimited.Assert.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 class CrafterModTests {
@@ -42,27 +43,21 @@ class CrafterModTests {
         CrafterAI.assignedForges.clear();
         crafterType = new CrafterType(SkillList.SMITHING_BLACKSMITHING);
         ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("removeDonationsAt"), Integer.MIN_VALUE);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("writeBehindWorkBooks"), false);
     }
 
     @Test
     void testBlockOpenActionOnAssignedForges() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Creature player = factory.createNewPlayer();
         Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 20);
         Item forge = factory.createNewItem(ItemList.forge);
         ((CrafterAIData)crafter.getCreatureAIData()).setForge(forge);
 
-        InvocationHandler handler = crafterMod::behaviourDispatcher;
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { player, player.getCommunicator(), 1, forge.getWurmId(), Actions.OPEN };
-
-        assertNull(handler.invoke(null, method, args));
-        verify(method, never()).invoke(any(), any());
+        assertTrue(CrafterMod.blockForgeAction(player, forge.getWurmId(), Actions.OPEN));
     }
 
     @Test
     void testStillBlockOpenActionOnAssignedForgesAfterServerLoad() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Creature player = factory.createNewPlayer();
         Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 20);
         Item forge = factory.createNewItem(ItemList.forge);
@@ -72,110 +67,70 @@ class CrafterModTests {
         ReflectionUtil.setPrivateField(crafter, Creature.class.getDeclaredField("aiData"), null);
         crafter.getCreatureAIData();
 
-        InvocationHandler handler = crafterMod::behaviourDispatcher;
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { player, player.getCommunicator(), 1, forge.getWurmId(), Actions.OPEN };
-
-        assertNull(handler.invoke(null, method, args));
-        verify(method, never()).invoke(any(), any());
+        assertTrue(CrafterMod.blockForgeAction(player, forge.getWurmId(), Actions.OPEN));
     }
 
     @Test
     void testDoesNotBlockOpenActionOnUnassignedForges() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Creature player = factory.createNewPlayer();
         Item forge = factory.createNewItem(ItemList.forge);
         assert !CrafterAI.assignedForges.containsValue(forge);
 
-        InvocationHandler handler = crafterMod::behaviourDispatcher;
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { player, player.getCommunicator(), 1, forge.getWurmId(), Actions.OPEN };
-
-        assertDoesNotThrow(() -> handler.invoke(null, method, args));
-        verify(method, times(1)).invoke(null, args);
+        assertFalse(CrafterMod.blockForgeAction(player, forge.getWurmId(), Actions.OPEN));
     }
 
     @Test
     void testDoesNotBlockOpenActionOnAssignedForgesForGMs() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Player player = factory.createNewPlayer();
         Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 20);
         Item forge = factory.createNewItem(ItemList.forge);
         ((CrafterAIData)crafter.getCreatureAIData()).setForge(forge);
         player.setPower((byte)2);
 
-        InvocationHandler handler = crafterMod::behaviourDispatcher;
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { player, player.getCommunicator(), 1, forge.getWurmId(), Actions.OPEN };
-
-        assertNull(handler.invoke(null, method, args));
-        verify(method, times(1)).invoke(null, args);
+        assertFalse(CrafterMod.blockForgeAction(player, forge.getWurmId(), Actions.OPEN));
         assertThat(player, receivedMessageContaining("This forge is assigned"));
     }
 
     @Test
     void testDoesNotBlockOtherActionsOnForges() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Creature player = factory.createNewPlayer();
         Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 20);
         Item forge = factory.createNewItem(ItemList.forge);
         ((CrafterAIData)crafter.getCreatureAIData()).setForge(forge);
 
-        InvocationHandler handler = crafterMod::behaviourDispatcher;
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { player, player.getCommunicator(), 1, forge.getWurmId(), Actions.EXAMINE };
-
-        assertDoesNotThrow(() -> handler.invoke(null, method, args));
-        verify(method, times(1)).invoke(null, args);
+        assertFalse(CrafterMod.blockForgeAction(player, forge.getWurmId(), Actions.EXAMINE));
     }
 
     @Test
     void testDoesNotBlockOpenActionOnNotForges() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Creature player = factory.createNewPlayer();
         Item chest = factory.createNewItem(ItemList.chestLarge);
 
-        InvocationHandler handler = crafterMod::behaviourDispatcher;
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { player, player.getCommunicator(), 1, chest.getWurmId(), Actions.OPEN };
-
-        assertDoesNotThrow(() -> handler.invoke(null, method, args));
-        verify(method, times(1)).invoke(null, args);
+        assertFalse(CrafterMod.blockForgeAction(player, chest.getWurmId(), Actions.OPEN));
     }
 
     @Test
     void testGetTradeHandlerNormal() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Creature merchant = factory.createNewMerchant(factory.createNewPlayer());
 
-        InvocationHandler handler = crafterMod::getTradeHandler;
-        Method method = mock(Method.class);
-        Object[] args = new Object[0];
-
-        assertNull(handler.invoke(merchant, method, args));
-        verify(method, times(1)).invoke(merchant, args);
+        assertNull(CrafterMod.getCrafterTradeHandler(merchant, null));
     }
 
     @Test
     void testGetTradeHandlerCrafter() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 20);
         Creature player = factory.createNewPlayer();
 
-        InvocationHandler handler = crafterMod::getTradeHandler;
-        Method method = mock(Method.class);
-        Object[] args = new Object[0];
-
         CrafterTrade trade = new CrafterTrade(player, crafter);
         player.setTrade(trade);
         crafter.setTrade(trade);
-        assertTrue(handler.invoke(crafter, method, args) instanceof CrafterTradeHandler);
-        verify(method, never()).invoke(crafter, args);
+        TradeHandler handler = CrafterMod.getCrafterTradeHandler(crafter, null);
+        assertTrue(handler instanceof CrafterTradeHandler);
+        assertSame(handler, CrafterMod.getCrafterTradeHandler(crafter, handler));
     }
 
     @Test
     void testSwapOwners() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Player owner = factory.createNewPlayer();
         Player player = factory.createNewPlayer();
         Creature crafter = factory.createNewCrafter(owner, new CrafterType(CrafterType.allMetal), 10);
@@ -190,19 +145,13 @@ class CrafterModTests {
         TradingWindow window = trade.getTradingWindow(4);
         window.addItem(contract);
 
-        InvocationHandler handler = crafterMod::swapOwners;
-        Method method = mock(Method.class);
-        Object[] args = new Object[0];
-
-        assertNull(handler.invoke(window, method, args));
-        verify(method, times(1)).invoke(window, args);
+        CrafterMod.swapCrafterOwners(window, owner, player);
         assertEquals(contract.getData(), crafter.getWurmId());
         assertEquals(player.getWurmId(), factory.getShop(crafter).getOwnerId());
     }
 
     @Test
     void testSwapOwnersBlankContract() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Player owner = factory.createNewPlayer();
         Player player = factory.createNewPlayer();
         Item contract = factory.createNewItem(CrafterMod.getContractTemplateId());
@@ -214,18 +163,12 @@ class CrafterModTests {
         TradingWindow window = trade.getTradingWindow(4);
         window.addItem(contract);
 
-        InvocationHandler handler = crafterMod::swapOwners;
-        Method method = mock(Method.class);
-        Object[] args = new Object[0];
-
-        assertNull(handler.invoke(window, method, args));
-        verify(method, times(1)).invoke(window, args);
+        CrafterMod.swapCrafterOwners(window, owner, player);
         assertEquals(contract.getData(), -1);
     }
 
     @Test
     void testJobItemsRemovedFromInventoryDuringWearItems() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 50);
         Item job = factory.createNewItem();
         crafter.getInventory().insertItem(job);
@@ -248,15 +191,21 @@ class CrafterModTests {
         ReflectionUtil.setPrivateField(crafterMod, CrafterMod.class.getDeclaredField("crafterSkillGainRate"), 5f);
         when(Servers.localServer.getSkillGainRate()).thenReturn(1f);
         Creature creature = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 50);
-
-        InvocationHandler handler = crafterMod::alterSkill;
         Skill skill = creature.getSkills().getSkill(SkillList.SMITHING_BLACKSMITHING);
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { 2d, false, 2f, false, 0d };
-        Object[] expectedArgs = new Object[] { 10d, false, 2f, false, 0d };
 
-        assertNull(handler.invoke(skill, method, args));
-        verify(method, times(1)).invoke(skill, expectedArgs);
+        assertEquals(10d, CrafterMod.crafterSkillGain(ReflectionUtil.getPrivateField(skill, Skill.class.getDeclaredField("parent")), 2d, 2f));
+    }
+
+    @Test
+    void testCrafterSkillGainRateAppliedIfSkillsReplaced() throws Throwable {
+        CrafterMod crafterMod = new CrafterMod();
+        ReflectionUtil.setPrivateField(crafterMod, CrafterMod.class.getDeclaredField("crafterSkillGainRate"), 5f);
+        when(Servers.localServer.getSkillGainRate()).thenReturn(1f);
+        Creature creature = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 50);
+        Skills skills = SkillsFactory.createSkills(creature.getWurmId());
+        creature.skills = skills;
+
+        assertEquals(10d, CrafterMod.crafterSkillGain(skills, 2d, 2f));
     }
 
     @Test
@@ -265,15 +214,9 @@ class CrafterModTests {
         ReflectionUtil.setPrivateField(crafterMod, CrafterMod.class.getDeclaredField("crafterSkillGainRate"), 1f);
         when(Servers.localServer.getSkillGainRate()).thenReturn(2f);
         Creature creature = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 50);
-
-        InvocationHandler handler = crafterMod::alterSkill;
         Skill skill = creature.getSkills().getSkill(SkillList.SMITHING_BLACKSMITHING);
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { 2d, false, 1f, false, 0d };
-        Object[] expectedArgs = new Object[] { 2d, false, 1f, false, 0d };
 
-        assertNull(handler.invoke(skill, method, args));
-        verify(method, times(1)).invoke(skill, expectedArgs);
+        assertEquals(2d, CrafterMod.crafterSkillGain(ReflectionUtil.getPrivateField(skill, Skill.class.getDeclaredField("parent")), 2d, 1f));
     }
 
     @Test
@@ -282,15 +225,9 @@ class CrafterModTests {
         ReflectionUtil.setPrivateField(crafterMod, CrafterMod.class.getDeclaredField("crafterSkillGainRate"), 1f);
         when(Servers.localServer.getSkillGainRate()).thenReturn(10f);
         Creature creature = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 50);
-
-        InvocationHandler handler = crafterMod::alterSkill;
         Skill skill = creature.getSkills().getSkill(SkillList.SMITHING_BLACKSMITHING);
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { 1d, false, 1f, false, 0d };
-        Object[] expectedArgs = new Object[] { 1d, false, 1f, false, 0d };
 
-        assertNull(handler.invoke(skill, method, args));
-        verify(method, times(1)).invoke(skill, expectedArgs);
+        assertEquals(1d, CrafterMod.crafterSkillGain(ReflectionUtil.getPrivateField(skill, Skill.class.getDeclaredField("parent")), 1d, 1f));
     }
 
     @Test
@@ -299,15 +236,9 @@ class CrafterModTests {
         ReflectionUtil.setPrivateField(crafterMod, CrafterMod.class.getDeclaredField("crafterSkillGainRate"), 5f);
         when(Servers.localServer.getSkillGainRate()).thenReturn(2f);
         Creature creature = factory.createNewCreature(CreatureTemplateIds.HORSE_CID);
-
-        InvocationHandler handler = crafterMod::alterSkill;
         Skill skill = creature.getSkills().getSkill(SkillList.SMITHING_BLACKSMITHING);
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { 2d, false, 1f, false, 0d };
-        Object[] expectedArgs = new Object[] { 2d, false, 1f, false, 0d };
 
-        assertNull(handler.invoke(skill, method, args));
-        verify(method, times(1)).invoke(skill, expectedArgs);
+        assertEquals(2d, CrafterMod.crafterSkillGain(ReflectionUtil.getPrivateField(skill, Skill.class.getDeclaredField("parent")), 2d, 1f));
     }
 
     @Test
@@ -348,9 +279,15 @@ class CrafterModTests {
         return window;
     }
 
+    // The rest of TradingWindow.swapOwners, following the inserted call.
+    private void giveContract(TradingWindow window, Creature watcher) {
+        Item contractItem = window.getItems()[0];
+        watcher.getInventory().insertItem(contractItem);
+        contractItem.setTradeWindow(null);
+    }
+
     @Test
     void testDoubleTradeCrafterMissingItemForCompletedJob() throws Throwable {
-        CrafterMod crafterMod = new CrafterMod();
         com.wurmonline.server.creatures.Creature player1 = factory.createNewPlayer();
         Creature player2 = factory.createNewPlayer();
         Creature player3 = factory.createNewPlayer();
@@ -366,38 +303,26 @@ class CrafterModTests {
         WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
         workBook.addJob(factory.createNewPlayer().getWurmId(), tool, 30, false, 100);
 
-        InvocationHandler handler = crafterMod::swapOwners;
-        Method method = mock(Method.class);
-        when(method.invoke(any(), any())).then((Answer<Void>)invocation -> {
-            TradingWindow window = invocation.getArgument(0);
-            Item contractItem = window.getItems()[0];
-            ((Creature)ReflectionUtil.getPrivateField(window, TradingWindow.class.getDeclaredField("watcher")))
-                    .getInventory().insertItem(contractItem);
-            contractItem.setTradeWindow(null);
-            return null;
-        });
-        Object[] args = new Object[0];
-
         TradingWindow window;
 
         // Trade 1 - 1 > 2
         window = newTradingWindow(player1, player2, contract);
-        assertNull(handler.invoke(window, method, args));
-        verify(method, times(1)).invoke(window, args);
+        CrafterMod.swapCrafterOwners(window, player1, player2);
+        giveContract(window, player2);
         assertEquals(player2.getWurmId(), crafter.getShop().getOwnerId());
         assertDoesNotThrow(() -> workBook.iterator().hasNext());
 
         // Trade 2 - 2 > 3
         window = newTradingWindow(player2, player3, contract);
-        assertNull(handler.invoke(window, method, args));
-        verify(method, times(1)).invoke(window, args);
+        CrafterMod.swapCrafterOwners(window, player2, player3);
+        giveContract(window, player3);
         assertEquals(player3.getWurmId(), crafter.getShop().getOwnerId());
         assertDoesNotThrow(() -> workBook.iterator().hasNext());
 
         // Trade 3 - 3 > 2
         window = newTradingWindow(player3, player2, contract);
-        assertNull(handler.invoke(window, method, args));
-        verify(method, times(1)).invoke(window, args);
+        CrafterMod.swapCrafterOwners(window, player3, player2);
+        giveContract(window, player2);
         assertEquals(player2.getWurmId(), crafter.getShop().getOwnerId());
         assertDoesNotThrow(() -> workBook.iterator().hasNext());
 
@@ -473,44 +398,52 @@ class CrafterModTests {
     void testWillLeaveServerEmptyContract() throws Throwable {
         Player gm = factory.createNewPlayer();
 
-        InvocationHandler handler = new CrafterMod()::willLeaveServer;
         Item item = factory.createNewItem(CrafterMod.getContractTemplateId());
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { true, false, false };
 
-        assertTrue((Boolean)handler.invoke(item, method, args));
+        assertEquals(Boolean.TRUE, CrafterMod.contractWillLeaveServer(item, true));
         assertFalse(item.isTransferred());
-        verify(method, never()).invoke(item, args);
     }
 
     @Test
     void testWillLeaveServerUsedContract() throws Throwable {
         Player gm = factory.createNewPlayer();
 
-        InvocationHandler handler = new CrafterMod()::willLeaveServer;
         Item item = factory.createNewItem(CrafterMod.getContractTemplateId());
         item.setData(gm.getWurmId());
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { true, false, false };
 
-        assertFalse((Boolean)handler.invoke(item, method, args));
+        assertEquals(Boolean.FALSE, CrafterMod.contractWillLeaveServer(item, true));
         assertTrue(item.isTransferred());
-        verify(method, never()).invoke(item, args);
     }
 
     @Test
     void testWillLeaveServerNotContract() throws Throwable {
         Player gm = factory.createNewPlayer();
 
-        InvocationHandler handler = new CrafterMod()::willLeaveServer;
         Item item = factory.createNewItem(ItemList.lunchbox);
         item.setData(gm.getWurmId());
         boolean isTransferred = item.isTransferred();
-        Method method = mock(Method.class);
-        Object[] args = new Object[] { true, false, false };
 
-        assertNull(handler.invoke(item, method, args));
+        assertNull(CrafterMod.contractWillLeaveServer(item, true));
         assertEquals(isTransferred, item.isTransferred());
-        verify(method, times(1)).invoke(item, args);
+    }
+
+    @Test
+    void testStopLoggersFlushesWorkBooks() throws Throwable {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("writeBehindWorkBooks"), true);
+        CrafterMod crafterMod = new CrafterMod();
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 20);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
+        int writes = workBook.pageWrites;
+        workBook.addJob(123, factory.createNewItem(), 20, false, 1);
+        assert workBook.pageWrites == writes;
+
+        InvocationHandler handler = crafterMod::stopLoggers;
+        Method method = mock(Method.class);
+        Object[] args = new Object[0];
+
+        assertDoesNotThrow(() -> handler.invoke(null, method, args));
+        verify(method, times(1)).invoke(null, args);
+        assertEquals(writes + 1, workBook.pageWrites);
+        assertEquals(1, new WorkBook(workBook.workBookItem).todo());
     }
 }
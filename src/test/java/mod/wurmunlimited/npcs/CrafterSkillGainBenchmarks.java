@@ -0,0 +1,83 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.Server;
+import com.wurmonline.server.Servers;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.skills.Skill;
+import com.wurmonline.server.skills.SkillList;
+import com.wurmonline.server.skills.Skills;
+import mod.wurmunlimited.Benchmark;
+import mod.wurmunlimited.CrafterObjectsFactory;
+import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.when;
+
+// One second of skill gains on a busy server, 10,000 gains spread over 200 players with a few crafters about.
+@Tag("benchmark")
+class CrafterSkillGainBenchmarks {
+    private static final int gainsPerSecond = 10_000;
+    private static final int iterations = 200;
+    private final List<Skill> skills = new ArrayList<>();
+    private final List<Skills> parents = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        CrafterObjectsFactory factory = new CrafterObjectsFactory();
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("crafterSkillGainRate"), 2f);
+        when(Servers.localServer.getSkillGainRate()).thenReturn(1f);
+        Field parent = Skill.class.getDeclaredField("parent");
+        for (int i = 0; i < 5; ++i) {
+            factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
+        }
+        for (int i = 0; i < 200; ++i) {
+            Skill skill = factory.createNewPlayer().getSkills().getSkillOrLearn(SkillList.SMITHING_BLACKSMITHING);
+            skills.add(skill);
+            parents.add(ReflectionUtil.getPrivateField(skill, parent));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("crafterSkillGainRate"), 1f);
+    }
+
+    // The previous check, finding the creature for each gain.
+    private double gainByCreatureLookup(Skill skill, double advanceMultiplicator) {
+        try {
+            Creature creature = Server.getInstance().getCreatureOrNull(
+                    ((Skills)ReflectionUtil.getPrivateField(skill, Skill.class.getDeclaredField("parent"))).getId());
+            if (creature != null && CrafterTemplate.isCrafter(creature))
+                return advanceMultiplicator * 2;
+            return advanceMultiplicator;
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void playerSkillGains() {
+        Benchmark.compare("10k player skill gains", 20, iterations,
+                () -> {
+                    double total = 0;
+                    for (int i = 0; i < gainsPerSecond; ++i) {
+                        total += gainByCreatureLookup(skills.get(i % skills.size()), 1d);
+                    }
+                    return total;
+                },
+                () -> {
+                    double total = 0;
+                    for (int i = 0; i < gainsPerSecond; ++i) {
+                        total += CrafterMod.crafterSkillGain(parents.get(i % parents.size()), 1d, 1f);
+                    }
+                    return total;
+                });
+    }
+}
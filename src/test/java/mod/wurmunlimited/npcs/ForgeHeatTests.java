@@ -0,0 +1,147 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.behaviours.Actions;
+import com.wurmonline.server.behaviours.BehaviourDispatcher;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.items.ItemList;
+import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ForgeHeatTests extends CrafterTest {
+    private static final short heatPerSecond = 100;
+    private CrafterAIData data;
+    private WorkBook workBook;
+    private long time;
+
+    @Override
+    @BeforeEach
+    protected void setUp() throws Exception {
+        super.setUp();
+        data = (CrafterAIData)crafter.getCreatureAIData();
+        workBook = data.getWorkBook();
+        setTime(0);
+    }
+
+    @AfterEach
+    void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("predictForgeHeat"), false);
+        CrafterAIData.clock = Clock.systemUTC();
+    }
+
+    private void setTime(long millis) {
+        time = millis;
+        CrafterAIData.clock = Clock.fixed(Instant.ofEpochMilli(time), ZoneOffset.UTC);
+    }
+
+    @Test
+    void testRecheckUntilRateKnown() {
+        ForgeHeat heat = new ForgeHeat();
+        Item item = factory.createNewItem(ItemList.pickAxe);
+        item.setTemperature((short)0);
+
+        assertEquals(1000 + ForgeHeat.RECHECK_MILLIS, heat.readyAt(item, 1000));
+        assertEquals(3000 + ForgeHeat.RECHECK_MILLIS, heat.readyAt(item, 3000));
+    }
+
+    @Test
+    void testReadyAtFromHeatingRate() {
+        ForgeHeat heat = new ForgeHeat();
+        Item item = factory.createNewItem(ItemList.pickAxe);
+        item.setTemperature((short)0);
+        heat.readyAt(item, 0);
+        item.setTemperature((short)1000);
+
+        assertEquals(40000, heat.readyAt(item, 10000));
+    }
+
+    @Test
+    void testReadyAtCapped() {
+        ForgeHeat heat = new ForgeHeat();
+        Item item = factory.createNewItem(ItemList.pickAxe);
+        item.setTemperature((short)0);
+        heat.readyAt(item, 0);
+        item.setTemperature((short)1);
+
+        assertEquals(10000 + ForgeHeat.MAX_WAIT_MILLIS, heat.readyAt(item, 10000));
+    }
+
+    @Test
+    void testReadyNowIfHotEnough() {
+        ForgeHeat heat = new ForgeHeat();
+        Item item = factory.createNewItem(ItemList.pickAxe);
+        item.setTemperature(CrafterAIData.targetTemperature);
+
+        assertEquals(1000, heat.readyAt(item, 1000));
+    }
+
+    @Test
+    void testMetalJobParkedUntilHot() throws NoSuchFieldException, IllegalAccessException, WorkBook.WorkBookFull {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("predictForgeHeat"), true);
+        workBook.addJob(player.getWurmId(), tool, 20, false, 100);
+        tool.setTemperature((short)0);
+
+        data.sendNextAction();
+        assertTrue(forge.getItems().contains(tool));
+        assertTrue(data.isAsleep());
+        setTime(ForgeHeat.RECHECK_MILLIS);
+        assertFalse(data.isAsleep());
+    }
+
+    // Each second heats everything in the forge, and the crafter works through its work book whenever it is awake.
+    // Improving is assumed to reach the target straight away, so the count is mostly spent waiting on the forge.
+    private int evaluationsToComplete(int metalJobs) throws WorkBook.WorkBookFull {
+        for (int i = 0; i < metalJobs; ++i) {
+            Item item = factory.createNewItem(ItemList.pickAxe);
+            item.setQualityLevel(10);
+            item.setTemperature((short)0);
+            player.getInventory().insertItem(item);
+            workBook.addJob(player.getWurmId(), item, 20, false, 100);
+        }
+        for (Item item : crafter.getInventory().getItems()) {
+            item.setTemperature((short)0);
+        }
+
+        int evaluations = 0;
+        long end = time + 3600000;
+        while (workBook.todo() > 0 && time < end) {
+            if (!data.isAsleep()) {
+                ++evaluations;
+                data.sendNextAction();
+                for (Job job : workBook) {
+                    if (BehaviourDispatcher.wasDispatched(job.item, Actions.IMPROVE))
+                        job.item.setQualityLevel(job.targetQL);
+                    if (BehaviourDispatcher.wasDispatched(job.item, Actions.REPAIR))
+                        job.item.setDamage(0);
+                }
+                BehaviourDispatcher.reset();
+            }
+
+            setTime(time + 1000);
+            for (Item item : forge.getItems()) {
+                item.setTemperature((short)Math.min(10000, item.getTemperature() + heatPerSecond));
+            }
+        }
+
+        assertEquals(0, workBook.todo());
+        return evaluations;
+    }
+
+    @Test
+    void testSimulatedEvaluationsPerMetalJob() throws NoSuchFieldException, IllegalAccessException, WorkBook.WorkBookFull {
+        int jobs = 5;
+        int polled = evaluationsToComplete(jobs);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("predictForgeHeat"), true);
+        int predicted = evaluationsToComplete(jobs);
+
+        System.out.println("Evaluations per metal job - every poll " + ((float)polled / jobs) + ", predicted " + ((float)predicted / jobs));
+        assertTrue(predicted * 3 < polled, "predicted " + predicted + ", every poll " + polled);
+    }
+}
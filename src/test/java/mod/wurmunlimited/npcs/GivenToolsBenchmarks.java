@@ -0,0 +1,58 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.items.ItemList;
+import mod.wurmunlimited.Benchmark;
+import mod.wurmunlimited.CrafterObjectsFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// A guild hall crafter holding dozens of given hammers, choosing one for each improve.
+@Tag("benchmark")
+class GivenToolsBenchmarks {
+    private static final int toolCount = 50;
+    private static final int iterations = 1_000_000;
+    private final List<Item> list = new ArrayList<>();
+    private final GivenTools givenTools = new GivenTools();
+    private final float[] targets = new float[1024];
+
+    @BeforeEach
+    void setUp() throws Exception {
+        CrafterObjectsFactory factory = new CrafterObjectsFactory();
+        Random random = new Random(1);
+        for (int i = 0; i < toolCount; ++i) {
+            Item tool = factory.createNewItem(ItemList.hammerMetal);
+            tool.setQualityLevel(1 + random.nextFloat() * 98);
+            list.add(tool);
+            givenTools.add(tool);
+        }
+        for (int i = 0; i < targets.length; ++i) {
+            targets[i] = random.nextFloat() * 90;
+        }
+    }
+
+    // The previous scan over every given tool.
+    private Item scan(float targetQL) {
+        Item tool = null;
+        for (Item item : list) {
+            float ql = item.getCurrentQualityLevel();
+            if ((tool == null  || ql > tool.getCurrentQualityLevel()) && ql > targetQL && ql <= targetQL + 20) {
+                tool = item;
+            }
+        }
+        return tool;
+    }
+
+    @Test
+    void choosePreferredTool() {
+        int[] i = new int[1];
+        Benchmark.compare("Choose from " + toolCount + " given tools", iterations,
+                () -> scan(targets[i[0]++ & 1023]),
+                () -> givenTools.choose(targets[i[0]++ & 1023]));
+    }
+}
@@ -0,0 +1,111 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.items.ItemList;
+import mod.wurmunlimited.CrafterObjectsFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GivenToolsTests {
+    private CrafterObjectsFactory factory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        factory = new CrafterObjectsFactory();
+    }
+
+    private Item createTool(float ql) {
+        Item item = factory.createNewItem(ItemList.hammerMetal);
+        item.setQualityLevel(ql);
+        return item;
+    }
+
+    @Test
+    void testAddRemove() {
+        GivenTools tools = new GivenTools();
+        Item tool = createTool(50);
+
+        assertTrue(tools.isEmpty());
+        assertTrue(tools.add(tool));
+        assertFalse(tools.add(tool));
+        assertTrue(tools.contains(tool));
+        assertFalse(tools.contains(createTool(50)));
+
+        assertTrue(tools.remove(tool));
+        assertFalse(tools.remove(tool));
+        assertTrue(tools.isEmpty());
+        assertNull(tools.choose(40));
+    }
+
+    @Test
+    void testItemsInOrderGiven() {
+        GivenTools tools = new GivenTools();
+        Item tool1 = createTool(60);
+        Item tool2 = createTool(20);
+        Item tool3 = createTool(40);
+        tools.add(tool1);
+        tools.add(tool2);
+        tools.add(tool3);
+
+        assertEquals(Arrays.asList(tool1, tool2, tool3), tools.getItems());
+    }
+
+    @Test
+    void testChooseHighestWithinRange() {
+        GivenTools tools = new GivenTools();
+        Item tool1 = createTool(35);
+        Item tool2 = createTool(50);
+        Item tool3 = createTool(50.1f);
+        tools.add(tool1);
+        tools.add(tool2);
+        tools.add(tool3);
+
+        assertEquals(tool2, tools.choose(30));
+        assertEquals(tool1, tools.choose(15.5f));
+        assertEquals(tool3, tools.choose(40));
+        assertNull(tools.choose(50.1f));
+        assertNull(tools.choose(10));
+    }
+
+    @Test
+    void testChooseNoticesChangedQuality() {
+        GivenTools tools = new GivenTools();
+        Item tool1 = createTool(45);
+        Item tool2 = createTool(40);
+        tools.add(tool1);
+        tools.add(tool2);
+
+        assertEquals(tool1, tools.choose(30));
+        tool1.setQualityLevel(20);
+        assertEquals(tool2, tools.choose(30));
+        assertEquals(tool1, tools.choose(10));
+    }
+
+    @Test
+    void testChooseNoticesDamageOnUnchosenTool() {
+        GivenTools tools = new GivenTools();
+        Item tool1 = createTool(45);
+        Item tool2 = createTool(40);
+        tools.add(tool1);
+        tools.add(tool2);
+
+        tool1.setDamage(90);
+        assert tool1.getCurrentQualityLevel() < 30;
+        assertEquals(tool2, tools.choose(30));
+    }
+
+    @Test
+    void testChooseNoticesDamageIntoRangeFromAbove() {
+        GivenTools tools = new GivenTools();
+        Item tool = createTool(80);
+        tools.add(tool);
+
+        tool.setDamage(50);
+        assert tool.getCurrentQualityLevel() > 30 && tool.getCurrentQualityLevel() <= 50;
+        assertEquals(tool, tools.choose(30));
+    }
+}
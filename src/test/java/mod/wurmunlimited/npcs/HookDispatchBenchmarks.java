@@ -0,0 +1,101 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.Server;
+import com.wurmonline.server.Servers;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.skills.Skill;
+import com.wurmonline.server.skills.SkillList;
+import com.wurmonline.server.skills.Skills;
+import mod.wurmunlimited.Benchmark;
+import mod.wurmunlimited.CrafterObjectsFactory;
+import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+import static org.mockito.Mockito.when;
+
+// Player skill gains and action messages, which only pass through the crafter hooks.  Before is the previous
+// InvocationHandler hook around a call to the original method, after is the inserted static call.
+@Tag("benchmark")
+class HookDispatchBenchmarks {
+    private static final int iterations = 1_000_000;
+    private Creature player;
+    private Skill skill;
+    private Skills parent;
+
+    // Stands in for the hooked server methods, so only the dispatch is timed.
+    @SuppressWarnings("unused")
+    private static void alterSkill(double advanceMultiplicator, boolean decay, float times, boolean useNewSystem, double skillDivider) {}
+
+    @SuppressWarnings("unused")
+    private static void broadCastAction(String message, Creature performer, Creature receiver, int distance, boolean combat) {}
+
+    @BeforeEach
+    void setUp() throws Exception {
+        CrafterObjectsFactory factory = new CrafterObjectsFactory();
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("crafterSkillGainRate"), 2f);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("send_event_messages"), false);
+        when(Servers.localServer.getSkillGainRate()).thenReturn(1f);
+        player = factory.createNewPlayer();
+        skill = player.getSkills().getSkillOrLearn(SkillList.SMITHING_BLACKSMITHING);
+        parent = ReflectionUtil.getPrivateField(skill, Skill.class.getDeclaredField("parent"));
+    }
+
+    @AfterEach
+    void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("crafterSkillGainRate"), 1f);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("send_event_messages"), true);
+    }
+
+    private static Object invoke(InvocationHandler handler, Object o, Method method, Object[] args) {
+        try {
+            return handler.invoke(o, method, args);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void alterSkill() throws NoSuchMethodException {
+        Method original = HookDispatchBenchmarks.class.getDeclaredMethod("alterSkill", double.class, boolean.class, float.class, boolean.class, double.class);
+        original.setAccessible(true);
+        InvocationHandler hook = (o, method, args) -> {
+            Creature creature = Server.getInstance().getCreatureOrNull(
+                    ((Skills)ReflectionUtil.getPrivateField(o, Skill.class.getDeclaredField("parent"))).getId());
+            if (creature != null && CrafterTemplate.isCrafter(creature))
+                args[0] = (double)args[0] * 2;
+            return method.invoke(null, args);
+        };
+
+        Benchmark.compare("Skill.alterSkill for a player", iterations,
+                () -> invoke(hook, skill, original, new Object[] { 1d, false, 1f, false, 0d }),
+                () -> {
+                    alterSkill(CrafterMod.crafterSkillGain(parent, 1d, 1f), false, 1f, false, 0d);
+                    return null;
+                });
+    }
+
+    @Test
+    void broadCastAction() throws NoSuchMethodException {
+        Method original = HookDispatchBenchmarks.class.getDeclaredMethod("broadCastAction", String.class, Creature.class, Creature.class, int.class, boolean.class);
+        original.setAccessible(true);
+        InvocationHandler hook = (o, method, args) -> {
+            if (CrafterTemplate.isCrafter((Creature)args[1]))
+                return null;
+            return method.invoke(null, args);
+        };
+
+        Benchmark.compare("MessageServer.broadCastAction for a player", iterations,
+                () -> invoke(hook, null, original, new Object[] { "Player hits the lump.", player, null, 5, false }),
+                () -> {
+                    if (!CrafterMod.hideCrafterAction(player))
+                        broadCastAction("Player hits the lump.", player, null, 5, false);
+                    return null;
+                });
+    }
+}
@@ -0,0 +1,124 @@
+package mod.wurmunlimited.npcs;
+
+import com.google.common.base.Joiner;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.items.ItemList;
+import mod.wurmunlimited.Benchmark;
+import mod.wurmunlimited.CrafterObjectsFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Tag("benchmark")
+class InscriptionParserBenchmarks {
+    private static final int pagesPerBook = 3;
+    private CrafterObjectsFactory factory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        factory = new CrafterObjectsFactory();
+    }
+
+    private Item createWorkBookItem() {
+        Item workBook = factory.createNewItem(ItemList.book);
+        workBook.setDescription(WorkBook.workBookDescription);
+        Item contents = factory.createNewItem(ItemList.papyrusSheet);
+        contents.setDescription("Contents");
+        contents.setInscription(Joiner.on("\n").join(50.0f, -10, "restrict1,2,3", (Object[])new CrafterType(CrafterType.allMetal).getAllTypes()), "");
+        workBook.insertItem(contents);
+
+        for (int i = 1; i <= pagesPerBook; ++i) {
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                String line = new Job(123456789L, factory.createNewItem(), 56.65f, false, 987654, false).toString();
+                if (sb.length() + line.length() > 500)
+                    break;
+                sb.append(line);
+            }
+            Item page = factory.createNewItem(ItemList.papyrusSheet);
+            page.setDescription("Page " + i);
+            page.setInscription(sb.toString(), "");
+            workBook.insertItem(page);
+        }
+        return workBook;
+    }
+
+    // How the job lines were read before InscriptionParser, without the item lookup.
+    private static long splitParse(String inscription) {
+        long total = 0;
+        for (String line : inscription.split("\n")) {
+            String[] values = line.split(",");
+            try {
+                total += Long.parseLong(values[0]) + Long.parseLong(values[1]) + (long)Float.parseFloat(values[2]) +
+                                 Integer.parseInt(values[3]) + Long.parseLong(values[4]) + Integer.parseInt(values[5]);
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException ignored) {}
+        }
+        return total;
+    }
+
+    private static long scanParse(InscriptionParser parser, String inscription) {
+        long total = 0;
+        parser.reset(inscription);
+        while (parser.nextLine()) {
+            long value = parser.longField(0) + parser.longField(1) + (long)parser.floatField(2) + parser.intField(3) +
+                                 parser.longField(4) + parser.intField(5);
+            if (!parser.invalid)
+                total += value;
+        }
+        return total;
+    }
+
+    private void benchmarkBooks(int count) {
+        List<String> inscriptions = new ArrayList<>();
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            Item item = createWorkBookItem();
+            items.add(item);
+            for (Item page : item.getItems()) {
+                if (!page.getDescription().equals("Contents"))
+                    inscriptions.add(page.getInscription().getInscription());
+            }
+        }
+
+        InscriptionParser parser = new InscriptionParser();
+        long expected = inscriptions.stream().mapToLong(InscriptionParserBenchmarks::splitParse).sum();
+        assertEquals(expected, inscriptions.stream().mapToLong(it -> scanParse(parser, it)).sum());
+
+        int iterations = Math.max(10, 10_000 / count);
+        Benchmark.compare("Parsing job pages of " + count + (count == 1 ? " work book" : " work books"), iterations, iterations,
+                () -> inscriptions.stream().mapToLong(InscriptionParserBenchmarks::splitParse).sum(),
+                () -> inscriptions.stream().mapToLong(it -> scanParse(parser, it)).sum());
+
+        double nanos = Benchmark.nanosPerOperation(iterations, iterations, () -> {
+            try {
+                for (Item item : items) {
+                    new WorkBook(item);
+                }
+            } catch (WorkBook.InvalidWorkBookInscription e) {
+                throw new RuntimeException(e);
+            }
+            return items;
+        });
+        System.out.printf("Loading %d work books - %.1f us per work book%n", count, nanos / count / 1000);
+    }
+
+    @Test
+    void benchmarkOneWorkBook() {
+        benchmarkBooks(1);
+    }
+
+    @Test
+    void benchmarkHundredWorkBooks() {
+        benchmarkBooks(100);
+    }
+
+    @Test
+    void benchmarkThousandWorkBooks() {
+        benchmarkBooks(1000);
+    }
+}
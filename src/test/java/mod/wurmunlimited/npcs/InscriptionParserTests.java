@@ -0,0 +1,139 @@
+package mod.wurmunlimited.npcs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InscriptionParserTests {
+    private final InscriptionParser parser = new InscriptionParser();
+
+    private List<List<String>> parse(String text) {
+        List<List<String>> lines = new ArrayList<>();
+        parser.reset(text);
+        while (parser.nextLine()) {
+            List<String> fields = new ArrayList<>();
+            for (int i = 0; i < parser.fieldCount(); ++i) {
+                fields.add(parser.field(i));
+            }
+            lines.add(fields);
+        }
+        return lines;
+    }
+
+    private List<List<String>> split(String text) {
+        List<List<String>> lines = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            lines.add(Arrays.asList(line.split(",")));
+        }
+        return lines;
+    }
+
+    @Test
+    void testSplitsLikeStringSplit() {
+        for (String text : new String[] { "", "\n", "\n\n", "1", "1\n", "1\n\n", "\n1", "1\n\n2", "1,2,3\n4,5,6\n",
+                "1,,3", "1,2,", "1,2,,", ",,,", ",1", "1,2\n,,\n3", "123,456,24.0,0,1,0\n789\n" }) {
+            assertEquals(split(text), parse(text), "\"" + text + "\"");
+        }
+    }
+
+    @Test
+    void testReusedForNextInscription() {
+        assert parse("1,2,3,4,5,6,7,8,9,10,11\n1").size() == 2;
+        assertEquals(split("4,5\n6"), parse("4,5\n6"));
+    }
+
+    private void assertLongMatches(String value) {
+        parser.reset(value);
+        parser.nextLine();
+        long parsed = parser.longLine();
+        try {
+            assertEquals(Long.parseLong(value), parsed, value);
+            assertFalse(parser.invalid, value);
+        } catch (NumberFormatException e) {
+            assertTrue(parser.invalid, value);
+        }
+    }
+
+    @Test
+    void testLongParsing() {
+        for (String value : new String[] { "0", "1", "-1", "+1", "-", "+", "", "12a", "a12", "1.0",
+                Long.toString(Long.MAX_VALUE), Long.toString(Long.MIN_VALUE), "9223372036854775808", "-9223372036854775809",
+                "99999999999999999999", "007" }) {
+            assertLongMatches(value);
+        }
+    }
+
+    @Test
+    void testIntAndByteRanges() {
+        parser.reset("2147483647,2147483648,127,128,-128,-129");
+        parser.nextLine();
+        assertEquals(Integer.MAX_VALUE, parser.intField(0));
+        assertFalse(parser.invalid);
+        parser.intField(1);
+        assertTrue(parser.invalid);
+
+        parser.invalid = false;
+        assertEquals(127, parser.byteField(2));
+        assertEquals(-128, parser.byteField(4));
+        assertFalse(parser.invalid);
+        parser.byteField(3);
+        assertTrue(parser.invalid);
+        parser.invalid = false;
+        parser.byteField(5);
+        assertTrue(parser.invalid);
+    }
+
+    @Test
+    void testMissingFieldIsInvalid() {
+        parser.reset("1,2");
+        parser.nextLine();
+        parser.longField(1);
+        assertFalse(parser.invalid);
+        parser.longField(2);
+        assertTrue(parser.invalid);
+    }
+
+    private void assertFloatMatches(String value) {
+        parser.reset(value);
+        parser.nextLine();
+        float parsed = parser.floatLine();
+        try {
+            assertEquals(Float.floatToIntBits(Float.parseFloat(value)), Float.floatToIntBits(parsed), value);
+            assertFalse(parser.invalid, value);
+        } catch (NumberFormatException e) {
+            assertTrue(parser.invalid, value);
+        }
+    }
+
+    @Test
+    void testFloatParsing() {
+        for (String value : new String[] { "0", "0.0", "-0.0", "1", "24.0", "56.65", "99.99999", "1.", ".5", ".", "-", "",
+                "+3.5", "1e5", "1.5E-3", "NaN", "Infinity", " 2.0", "2.0f", "1.2.3", "16777217", "0.00000000001",
+                "123456789.123456789", "abc" }) {
+            assertFloatMatches(value);
+        }
+    }
+
+    @Test
+    void testFloatParsingMatchesFloatParseFloat() {
+        Random random = new Random(1234);
+        for (int i = 0; i < 100_000; ++i) {
+            assertFloatMatches(Float.toString(random.nextFloat() * 100));
+            assertFloatMatches(Float.toString(random.nextFloat() * 100000000));
+            int decimals = random.nextInt(8);
+            StringBuilder sb = new StringBuilder(Integer.toString(random.nextInt(1000)));
+            if (decimals > 0) {
+                sb.append('.');
+                for (int j = 0; j < decimals; ++j) {
+                    sb.append(random.nextInt(10));
+                }
+            }
+            assertFloatMatches(sb.toString());
+        }
+    }
+}
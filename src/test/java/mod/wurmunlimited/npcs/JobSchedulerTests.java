@@ -0,0 +1,154 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.items.Item;
+import mod.wurmunlimited.CrafterObjectsFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JobSchedulerTests {
+    private CrafterObjectsFactory factory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        factory = new CrafterObjectsFactory();
+    }
+
+    private Job createJob(float currentQL, float targetQL, long price) {
+        Item item = factory.createNewItem();
+        item.setQualityLevel(currentQL);
+        return new Job(123, item, targetQL, false, price, false);
+    }
+
+    private Donation createDonation(float currentQL) {
+        Item item = factory.createNewItem();
+        item.setQualityLevel(currentQL);
+        return new Donation(item);
+    }
+
+    private List<Job> toList(JobScheduler scheduler) {
+        List<Job> list = new ArrayList<>();
+        scheduler.forEach(list::add);
+        return list;
+    }
+
+    @Test
+    void testFifoOrder() {
+        JobScheduler scheduler = new JobScheduler(CrafterMod.JobOrderOption.fifo);
+        Job job1 = createJob(10, 50, 1);
+        Job job2 = createJob(40, 50, 100);
+        Job job3 = createJob(20, 50, 10);
+        scheduler.add(job1);
+        scheduler.add(job2);
+        scheduler.add(job3);
+
+        assertEquals(Arrays.asList(job1, job2, job3), toList(scheduler));
+    }
+
+    @Test
+    void testLowestQLGapOrder() {
+        JobScheduler scheduler = new JobScheduler(CrafterMod.JobOrderOption.lowest_ql_gap);
+        Job job1 = createJob(10, 50, 1);
+        Job job2 = createJob(40, 50, 100);
+        Job job3 = createJob(20, 50, 10);
+        scheduler.add(job1);
+        scheduler.add(job2);
+        scheduler.add(job3);
+
+        assertEquals(Arrays.asList(job2, job3, job1), toList(scheduler));
+    }
+
+    @Test
+    void testHighestPriceOrder() {
+        JobScheduler scheduler = new JobScheduler(CrafterMod.JobOrderOption.highest_price);
+        Job job1 = createJob(10, 50, 1);
+        Job job2 = createJob(40, 50, 100);
+        Job job3 = createJob(20, 50, 10);
+        scheduler.add(job1);
+        scheduler.add(job2);
+        scheduler.add(job3);
+
+        assertEquals(Arrays.asList(job2, job3, job1), toList(scheduler));
+    }
+
+    @Test
+    void testDonationsLastLowestQLFirst() {
+        JobScheduler scheduler = new JobScheduler(CrafterMod.JobOrderOption.fifo);
+        Donation donation1 = createDonation(30);
+        Donation donation2 = createDonation(10);
+        Job job = createJob(10, 50, 1);
+        scheduler.add(donation1);
+        scheduler.add(donation2);
+        scheduler.add(job);
+
+        assertEquals(Arrays.asList(job, donation2, donation1), toList(scheduler));
+    }
+
+    @Test
+    void testDoneJobsNotScheduled() {
+        JobScheduler scheduler = new JobScheduler(CrafterMod.JobOrderOption.fifo);
+        Job job = createJob(10, 50, 1);
+        job.done = true;
+        scheduler.add(job);
+
+        assertEquals(0, scheduler.size());
+        assertFalse(scheduler.iterator().hasNext());
+    }
+
+    @Test
+    void testUpdateReordersOnQualityChange() {
+        JobScheduler scheduler = new JobScheduler(CrafterMod.JobOrderOption.lowest_ql_gap);
+        Job job1 = createJob(10, 50, 1);
+        Job job2 = createJob(20, 50, 1);
+        Donation donation1 = createDonation(10);
+        Donation donation2 = createDonation(20);
+        scheduler.add(job1);
+        scheduler.add(job2);
+        scheduler.add(donation1);
+        scheduler.add(donation2);
+        assert toList(scheduler).equals(Arrays.asList(job2, job1, donation1, donation2));
+
+        job1.item.setQualityLevel(45);
+        donation1.item.setQualityLevel(25);
+        scheduler.update(job1);
+        scheduler.update(donation1);
+
+        assertEquals(Arrays.asList(job1, job2, donation2, donation1), toList(scheduler));
+    }
+
+    @Test
+    void testUpdateRemovesDoneJob() {
+        JobScheduler scheduler = new JobScheduler(CrafterMod.JobOrderOption.fifo);
+        Job job = createJob(10, 50, 1);
+        scheduler.add(job);
+        job.done = true;
+        scheduler.update(job);
+
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    void testRemoveWhilstIterating() {
+        JobScheduler scheduler = new JobScheduler(CrafterMod.JobOrderOption.fifo);
+        Job job1 = createJob(10, 50, 1);
+        Job job2 = createJob(10, 50, 1);
+        Donation donation = createDonation(10);
+        scheduler.add(job1);
+        scheduler.add(job2);
+        scheduler.add(donation);
+
+        List<Job> seen = new ArrayList<>();
+        for (Job job : scheduler) {
+            seen.add(job);
+            scheduler.remove(job);
+        }
+
+        assertEquals(Arrays.asList(job1, job2, donation), seen);
+        assertEquals(0, scheduler.size());
+    }
+}
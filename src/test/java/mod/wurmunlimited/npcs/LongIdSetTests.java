@@ -0,0 +1,54 @@
+package mod.wurmunlimited.npcs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongIdSetTests {
+    @Test
+    void testAddRemove() {
+        LongIdSet set = new LongIdSet();
+        assertTrue(set.add(12345L));
+        assertFalse(set.add(12345L));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+
+        assertEquals(2, set.size());
+        assertTrue(set.contains(12345L));
+        assertTrue(set.contains(0));
+        assertFalse(set.contains(54321L));
+
+        assertTrue(set.remove(12345L));
+        assertFalse(set.remove(12345L));
+        assertTrue(set.remove(0));
+        assertEquals(0, set.size());
+        assertFalse(set.contains(12345L));
+        assertFalse(set.contains(0));
+    }
+
+    @Test
+    void testMatchesHashSet() {
+        LongIdSet set = new LongIdSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(1);
+
+        for (int i = 0; i < 10000; ++i) {
+            // Few enough ids that the same ones are added and removed repeatedly.
+            long id = random.nextInt(500) * 0x100000000L + 2;
+            if (random.nextBoolean())
+                assertEquals(expected.add(id), set.add(id));
+            else
+                assertEquals(expected.remove(id), set.remove(id));
+        }
+
+        assertEquals(expected.size(), set.size());
+        for (int i = 0; i < 500; ++i) {
+            long id = i * 0x100000000L + 2;
+            assertEquals(expected.contains(id), set.contains(id));
+        }
+    }
+}
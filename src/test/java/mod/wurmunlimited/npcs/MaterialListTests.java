@@ -0,0 +1,47 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.shared.constants.ItemMaterials;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MaterialListTests {
+    @Test
+    void testContainsAllByteValues() {
+        MaterialList list = new MaterialList();
+        for (int i = Byte.MIN_VALUE; i <= Byte.MAX_VALUE; i += 3) {
+            list.add((byte)i);
+        }
+
+        for (int i = Byte.MIN_VALUE; i <= Byte.MAX_VALUE; ++i) {
+            assertEquals((i - Byte.MIN_VALUE) % 3 == 0, list.contains((byte)i), Integer.toString(i));
+            assertEquals((i - Byte.MIN_VALUE) % 3 == 0, list.contains((Object)(byte)i), Integer.toString(i));
+        }
+    }
+
+    @Test
+    void testKeepsOrder() {
+        MaterialList list = new MaterialList();
+        list.addAll(Arrays.asList(ItemMaterials.MATERIAL_IRON, ItemMaterials.MATERIAL_COPPER, ItemMaterials.MATERIAL_TIN));
+
+        assertEquals(Arrays.asList(ItemMaterials.MATERIAL_IRON, ItemMaterials.MATERIAL_COPPER, ItemMaterials.MATERIAL_TIN), list);
+    }
+
+    @Test
+    void testRemoveKeepsDuplicates() {
+        MaterialList list = new MaterialList();
+        list.addAll(Arrays.asList(ItemMaterials.MATERIAL_IRON, ItemMaterials.MATERIAL_COPPER, ItemMaterials.MATERIAL_IRON));
+
+        list.remove((Object)ItemMaterials.MATERIAL_IRON);
+        assertTrue(list.contains(ItemMaterials.MATERIAL_IRON));
+        list.remove((Object)ItemMaterials.MATERIAL_IRON);
+        assertFalse(list.contains(ItemMaterials.MATERIAL_IRON));
+        assertTrue(list.contains(ItemMaterials.MATERIAL_COPPER));
+
+        list.clear();
+        assertFalse(list.contains(ItemMaterials.MATERIAL_COPPER));
+        assertTrue(list.isEmpty());
+    }
+}
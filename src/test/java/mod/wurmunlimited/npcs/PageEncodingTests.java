@@ -0,0 +1,100 @@
+package mod.wurmunlimited.npcs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageEncodingTests {
+    private static String encode(List<Job> jobs) {
+        StringBuilder sb = new StringBuilder().append(PageEncoding.MARKER).append(PageEncoding.VERSION);
+        Job previous = null;
+        for (Job job : jobs) {
+            int before = sb.length();
+            PageEncoding.encode(sb, job, previous);
+            assertEquals(sb.length() - before, PageEncoding.encodedLength(job, previous));
+            previous = job;
+        }
+        return sb.toString();
+    }
+
+    private static List<Job> decode(String text) throws PageEncoding.UnsupportedVersion {
+        List<Job> jobs = new ArrayList<>();
+        assertTrue(PageEncoding.decode(text, (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) ->
+                jobs.add(donation ? new Donation(itemId) : new Job(customerId, itemId, targetQL, mailWhenDone, priceCharged, done))));
+        return jobs;
+    }
+
+    private static void assertSameJobs(List<Job> expected, List<Job> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+            assertEquals(expected.get(i).isDonation(), actual.get(i).isDonation());
+        }
+    }
+
+    @Test
+    void testRoundTrip() throws PageEncoding.UnsupportedVersion {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; ++i) {
+            List<Job> jobs = new ArrayList<>();
+            long itemId = random.nextLong();
+            for (int j = 0; j < 20; ++j) {
+                itemId += random.nextInt(10000) - 100;
+                if (random.nextInt(4) == 0)
+                    jobs.add(new Donation(itemId));
+                else
+                    jobs.add(new Job(random.nextBoolean() ? 1234567L : random.nextLong(), itemId, random.nextFloat() * 100,
+                            random.nextBoolean(), random.nextInt(100000), random.nextBoolean()));
+            }
+            assertSameJobs(jobs, decode(encode(jobs)));
+        }
+    }
+
+    @Test
+    void testExtremeValues() throws PageEncoding.UnsupportedVersion {
+        List<Job> jobs = new ArrayList<>();
+        jobs.add(new Job(Long.MAX_VALUE, Long.MIN_VALUE, -0.0f, true, Long.MAX_VALUE, true));
+        jobs.add(new Job(Long.MIN_VALUE, Long.MAX_VALUE, Float.NaN, false, Long.MIN_VALUE, false));
+        jobs.add(new Donation(0));
+        jobs.add(new Job(-1, -1, Float.MAX_VALUE, false, 0, false));
+        assertSameJobs(jobs, decode(encode(jobs)));
+    }
+
+    @Test
+    void testSmallerThanText() {
+        List<Job> jobs = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10; ++i) {
+            Job job = new Job(74574593L, 1234567890L + i * 256, 56.65f, false, 12345, false);
+            jobs.add(job);
+            text.append(job.toString());
+        }
+        assertTrue(encode(jobs).length() * 3 < text.length(), encode(jobs));
+    }
+
+    @Test
+    void testCutShort() throws PageEncoding.UnsupportedVersion {
+        List<Job> jobs = new ArrayList<>();
+        jobs.add(new Job(74574593L, 1234567890L, 56.65f, false, 12345, false));
+        jobs.add(new Job(74574593L, 1234567990L, 56.65f, false, 12345, false));
+        String text = encode(jobs);
+        String cutShort = text.substring(0, text.length() - 1);
+
+        List<Job> read = new ArrayList<>();
+        assertFalse(PageEncoding.decode(cutShort, (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) ->
+                read.add(new Job(customerId, itemId, targetQL, mailWhenDone, priceCharged, done))));
+        assertSameJobs(jobs.subList(0, 1), read);
+        assertFalse(PageEncoding.decode(text.substring(0, 3) + "," + text.substring(3), (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) -> {}));
+    }
+
+    @Test
+    void testUnsupportedVersion() {
+        assertTrue(PageEncoding.isCompact("~2AAAA"));
+        assertFalse(PageEncoding.isCompact("123,456,25.0,0,1,0\n"));
+        assertThrows(PageEncoding.UnsupportedVersion.class, () -> PageEncoding.decode("~2AAAA", (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) -> {}));
+    }
+}
@@ -0,0 +1,53 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.items.ItemList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TemplateIdSetTests {
+    @Test
+    void testAddRemove() {
+        TemplateIdSet set = new TemplateIdSet();
+        assertTrue(set.add(ItemList.pickAxe));
+        assertFalse(set.add(ItemList.pickAxe));
+        assertTrue(set.add(ItemList.shovel));
+
+        assertEquals(2, set.size());
+        assertTrue(set.contains(ItemList.pickAxe));
+        assertTrue(set.contains((Object)ItemList.shovel));
+        assertFalse(set.contains(ItemList.hatchet));
+        assertFalse(set.contains(-1));
+
+        assertTrue(set.remove(ItemList.pickAxe));
+        assertFalse(set.remove(ItemList.pickAxe));
+        assertEquals(1, set.size());
+        assertFalse(set.contains(ItemList.pickAxe));
+    }
+
+    @Test
+    void testIteratesInOrder() {
+        TemplateIdSet set = new TemplateIdSet();
+        set.addAll(Arrays.asList(ItemList.shovel, ItemList.hatchet, ItemList.pickAxe));
+        List<Integer> sorted = new ArrayList<>(Arrays.asList(ItemList.shovel, ItemList.hatchet, ItemList.pickAxe));
+        sorted.sort(Integer::compare);
+
+        assertEquals(sorted, new ArrayList<>(set));
+
+        Iterator<Integer> iterator = set.iterator();
+        iterator.next();
+        iterator.remove();
+        assertEquals(2, set.size());
+        assertFalse(set.contains(sorted.get(0)));
+    }
+
+    @Test
+    void testNegativeNotAllowed() {
+        assertThrows(IllegalArgumentException.class, () -> new TemplateIdSet().add(-5));
+    }
+}
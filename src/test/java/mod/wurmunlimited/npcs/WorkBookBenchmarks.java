@@ -0,0 +1,90 @@
+package mod.wurmunlimited.npcs;
+
+import com.wurmonline.server.Constants;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.skills.SkillList;
+import mod.wurmunlimited.Benchmark;
+import mod.wurmunlimited.CrafterObjectsFactory;
+import mod.wurmunlimited.npcs.db.CrafterDatabase;
+import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Tag("benchmark")
+class WorkBookBenchmarks {
+    private static final int jobCount = 500;
+    private static final int iterations = 100_000;
+    private final List<Creature> customers = new ArrayList<>();
+    private final List<Job> allJobs = new ArrayList<>();
+    private WorkBook workBook;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        CrafterObjectsFactory factory = new CrafterObjectsFactory();
+        Constants.dbHost = ".";
+        // Inscription pages cannot hold 500 jobs.
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("jobStorage"), CrafterMod.JobStorageOption.database);
+
+        for (int i = 0; i < 20; ++i) {
+            customers.add(factory.createNewPlayer());
+        }
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
+        workBook = WorkBook.getWorkBookFromWorker(crafter);
+        for (int i = 0; i < jobCount; ++i) {
+            if (i % 10 == 0)
+                workBook.addDonation(factory.createNewItem());
+            else
+                workBook.addJob(customers.get(i % customers.size()).getWurmId(), factory.createNewItem(), 30, false, 1);
+        }
+        for (Job job : workBook) {
+            if (allJobs.size() % 3 == 0)
+                workBook.setDone(job, crafter);
+            allJobs.add(job);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("jobStorage"), CrafterMod.JobStorageOption.inscription);
+        CrafterDatabase.close();
+        File file = new File("./sqlite/" + CrafterMod.dbName);
+        if (file.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("created"), false);
+    }
+
+    @Test
+    void benchmarkCounters() {
+        assertEquals(allJobs.stream().filter(job -> !job.done && !job.isDonation()).count(), workBook.todo());
+        assertEquals(allJobs.stream().filter(Job::isDonation).count(), workBook.donationsTodo());
+        assertEquals(allJobs.stream().filter(job -> job.done).count(), workBook.done());
+
+        Benchmark.compare("todo() + donationsTodo() with " + jobCount + " jobs", iterations,
+                () -> allJobs.stream().filter(job -> !job.done && !job.isDonation()).count() + allJobs.stream().filter(Job::isDonation).count(),
+                () -> workBook.todo() + workBook.donationsTodo());
+        Benchmark.compare("done() with " + jobCount + " jobs", iterations,
+                () -> allJobs.stream().filter(job -> job.done).count(),
+                () -> workBook.done());
+    }
+
+    @Test
+    void benchmarkGetJobsFor() {
+        Creature customer = customers.get(0);
+        assertEquals(allJobs.stream().filter(job -> job.customerId == customer.getWurmId()).collect(Collectors.toList()), workBook.getJobsFor(customer));
+
+        Benchmark.compare("getJobsFor() with " + jobCount + " jobs", iterations,
+                () -> allJobs.stream().filter(job -> job.customerId == customer.getWurmId()).collect(Collectors.toList()),
+                () -> workBook.getJobsFor(customer));
+    }
+}
@@ -1,6 +1,7 @@
 package mod.wurmunlimited.npcs;
 
 import com.google.common.base.Joiner;
+import com.wurmonline.server.Constants;
 import com.wurmonline.server.FailedException;
 import com.wurmonline.server.Items;
 import com.wurmonline.server.NoSuchItemException;
@@ -11,11 +12,16 @@ import com.wurmonline.server.items.NoSuchTemplateException;
 import com.wurmonline.server.skills.SkillList;
 import com.wurmonline.shared.constants.ItemMaterials;
 import mod.wurmunlimited.CrafterObjectsFactory;
+import mod.wurmunlimited.npcs.db.CrafterDatabase;
 import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -26,10 +32,37 @@ class WorkBookTests extends GlobalRestrictionsFileWrapper {
     @BeforeEach
     protected void setUp() throws Exception {
         super.setUp();
+        // Work books check the database for stored jobs whatever job_storage is set to.
+        Constants.dbHost = ".";
         factory = new CrafterObjectsFactory();
         crafterType = new CrafterType(CrafterType.allMetal);
     }
 
+    @Override
+    @AfterEach
+    protected void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        super.tearDown();
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("jobStorage"), CrafterMod.JobStorageOption.inscription);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("writeBehindWorkBooks"), false);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("compactWorkBookPages"), false);
+        CrafterDatabase.close();
+        File file = new File("./sqlite/" + CrafterMod.dbName);
+        if (file.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("created"), false);
+    }
+
+    private void storeJobsInDatabase() {
+        try {
+            Constants.dbHost = ".";
+            ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("jobStorage"), CrafterMod.JobStorageOption.database);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private Item createBlankWorkbookItem() {
         Item workbook = factory.createNewItem(ItemList.book);
         workbook.setDescription(WorkBook.workBookDescription);
@@ -244,6 +277,29 @@ class WorkBookTests extends GlobalRestrictionsFileWrapper {
         assertEquals(1, workBook.todo());
     }
 
+    @Test
+    void testJobItemsResolvedOnFirstUse() {
+        Item workBookItem = createBlankWorkbookItem();
+        workBookItem.getFirstContainedItem().setInscription(Joiner.on("\n").join(
+                "20", "-10", (Object[])crafterType.getAllTypes()), "");
+        Item tool = factory.createNewItem();
+        long missingId = tool.getWurmId() + 1;
+        assertThrows(NoSuchItemException.class, () -> Items.getItem(missingId));
+        Item page1 = getOrCreatePageOne(workBookItem);
+        String inscription = "123," + tool.getWurmId() + ",25.0,0,1,0\n" + "123," + missingId + ",25.0,0,1,0\n";
+        page1.setInscription(inscription, "");
+
+        WorkBook workBook = getWorkBookFromItem(workBookItem);
+        assertTrue(workBook.isJobItem(tool));
+        assertEquals(0, workBook.pageWrites);
+        assertEquals(inscription, Objects.requireNonNull(page1.getInscription()).getInscription());
+
+        assertEquals(1, workBook.todo());
+        assertEquals(tool, workBook.iterator().next().getItem());
+        assertEquals(1, workBook.pageWrites);
+        assertEquals("123," + tool.getWurmId() + ",25.0,0,1,0\n", Objects.requireNonNull(page1.getInscription()).getInscription());
+    }
+
     @Test
     void testWorkBookLoadingIllegalJobTargetQL() {
         Item workBookItem = createBlankWorkbookItem();
@@ -489,6 +545,54 @@ class WorkBookTests extends GlobalRestrictionsFileWrapper {
         assertEquals(0, workBook.done());
     }
 
+    @Test
+    void testSetDoneOnlyWritesJobPage() throws WorkBook.WorkBookFull, WorkBook.NoWorkBookOnWorker, WorkBook.InvalidWorkBookInscription {
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(CrafterType.allMetal), 20);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
+        while (workBook.workBookItem.getItemCount() < 3) {
+            workBook.addJob(123, factory.createNewItem(), 24.0f, false, 1);
+        }
+
+        Job first = workBook.iterator().next();
+        int writes = workBook.pageWrites;
+        workBook.setDone(first, crafter);
+
+        assertEquals(writes + 1, workBook.pageWrites);
+        WorkBook reloaded = new WorkBook(workBook.workBookItem);
+        assertTrue(reloaded.iterator().next().isDone());
+        assertEquals(workBook.todo(), reloaded.todo());
+    }
+
+    @Test
+    void testAddJobOnlyWritesLastPage() throws NoSuchTemplateException, FailedException, WorkBook.WorkBookFull {
+        WorkBook workBook = WorkBook.createNewWorkBook(new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
+        while (workBook.workBookItem.getItemCount() < 3) {
+            workBook.addJob(123, factory.createNewItem(), 24.0f, false, 1);
+        }
+
+        int writes = workBook.pageWrites;
+        workBook.addJob(123, factory.createNewItem(), 24.0f, false, 1);
+
+        assertEquals(writes + 1, workBook.pageWrites);
+    }
+
+    @Test
+    void testRemoveJobOnlyWritesJobPage() throws NoSuchTemplateException, FailedException, WorkBook.WorkBookFull, WorkBook.InvalidWorkBookInscription {
+        WorkBook workBook = WorkBook.createNewWorkBook(new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
+        while (workBook.workBookItem.getItemCount() < 3) {
+            workBook.addJob(123, factory.createNewItem(), 24.0f, false, 1);
+        }
+
+        Job first = workBook.iterator().next();
+        int writes = workBook.pageWrites;
+        workBook.removeJob(first.item);
+
+        assertEquals(writes + 1, workBook.pageWrites);
+        WorkBook reloaded = new WorkBook(workBook.workBookItem);
+        assertEquals(workBook.todo(), reloaded.todo());
+        assertFalse(reloaded.isJobItem(first.item));
+    }
+
     @Test
     void testSavingWorkbookPages() throws NoSuchTemplateException, FailedException, WorkBook.WorkBookFull {
         WorkBook workBook = WorkBook.createNewWorkBook(new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
@@ -586,20 +690,95 @@ class WorkBookTests extends GlobalRestrictionsFileWrapper {
         assertThrows(WorkBook.WorkBookFull.class, () -> workBook.addJob(123, tool, 1, false, 1));
     }
 
+    private boolean hasEnoughSpaceFor(WorkBook workBook, Item... items) {
+        return workBook.hasEnoughSpaceFor(123456789, items, item -> 56.65f, item -> 987654321);
+    }
+
+    private void assertSpaceMatchesAddJob() throws WorkBook.WorkBookFull {
+        WorkBook workBook = createNewWorkbook(SkillList.SMITHING_BLACKSMITHING);
+        List<Item> items = new ArrayList<>();
+        do {
+            items.add(factory.createNewItem(ItemList.pickAxe));
+        } while (hasEnoughSpaceFor(workBook, items.toArray(new Item[0])));
+        assertTrue(items.size() > 1);
+
+        Item last = items.remove(items.size() - 1);
+        for (Item item : items) {
+            assertTrue(hasEnoughSpaceFor(workBook, item));
+            workBook.addJob(123456789, item, 56.65f, true, 987654321);
+        }
+        assertFalse(hasEnoughSpaceFor(workBook, last));
+
+        // Space left on an earlier page is used once the work book is packed again.
+        workBook.removeJob(items.get(0));
+        assertTrue(hasEnoughSpaceFor(workBook, last));
+        workBook.addJob(123456789, last, 56.65f, true, 987654321);
+        Item next = factory.createNewItem(ItemList.pickAxe);
+        while (hasEnoughSpaceFor(workBook, next)) {
+            workBook.addJob(123456789, next, 56.65f, true, 987654321);
+            next = factory.createNewItem(ItemList.pickAxe);
+        }
+        Item full = next;
+        assertThrows(WorkBook.WorkBookFull.class, () -> workBook.addJob(123456789, full, 56.65f, true, 987654321));
+    }
+
     @Test
-    void testHasEnoughSpace() {
-        List<String> lines = new ArrayList<>();
-        int max = 9 * 500;
+    void testHasEnoughSpace() throws WorkBook.WorkBookFull {
+        assertSpaceMatchesAddJob();
+    }
+
+    @Test
+    void testHasEnoughSpaceCompactPages() throws WorkBook.WorkBookFull, NoSuchFieldException, IllegalAccessException {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("compactWorkBookPages"), true);
+        assertSpaceMatchesAddJob();
+    }
+
+    @Test
+    void testHasEnoughSpaceSkipsCoins() {
         WorkBook workBook = createNewWorkbook(SkillList.SMITHING_BLACKSMITHING);
-        String line = new Job(123456789, factory.createNewItem(ItemList.pickAxe), 56.65f, true, 987654321, false).toString();
+        Item[] coins = new Item[1000];
+        for (int i = 0; i < coins.length; ++i) {
+            coins[i] = factory.createNewItem(ItemList.coinCopper);
+        }
+
+        assertTrue(hasEnoughSpaceFor(workBook, coins));
+    }
+
+    @Test
+    void testJobLineLength() {
+        for (long id : new long[] { 0, 7, -7, 123456789, Long.MAX_VALUE, Long.MIN_VALUE }) {
+            for (float ql : new float[] { 1, 56.65f, 100, 0.001f, 1.0E-10f }) {
+                Job job = new Job(id, id, ql, true, id, false);
+                assertEquals(job.toString().length(), Job.lineLength(id, id, ql, id, false));
+            }
+            assertEquals(new Donation(id).toString().length(), Job.lineLength(0, id, 100, 0, true));
+        }
+    }
 
-        while (lines.stream().mapToInt(String::length).sum() + line.length() < max) {
-            lines.add(line);
-            assertTrue(workBook.hasEnoughSpaceFor(lines), "Reached:  " + lines.stream().mapToInt(String::length).sum());
+    @Test
+    void testRemainingCapacityJobsAllFit() throws WorkBook.WorkBookFull {
+        WorkBook workBook = createNewWorkbook(SkillList.SMITHING_BLACKSMITHING);
+        int capacity = workBook.remainingCapacity();
+        assertTrue(capacity > 0);
+
+        int added = 0;
+        while (workBook.remainingCapacity() > 0) {
+            int remaining = workBook.remainingCapacity();
+            workBook.addJob(123456789, factory.createNewItem(ItemList.pickAxe), 56.65f, true, 987654321);
+            ++added;
+            assertTrue(workBook.remainingCapacity() <= remaining);
         }
 
-        lines.add(line);
-        assertFalse(workBook.hasEnoughSpaceFor(lines));
+        assertTrue(added >= capacity);
+        assertEquals(0, workBook.remainingCapacity());
+    }
+
+    @Test
+    void testRemainingCapacityUnlimitedInDatabase() {
+        storeJobsInDatabase();
+        WorkBook workBook = createNewWorkbook(SkillList.SMITHING_BLACKSMITHING);
+
+        assertEquals(Integer.MAX_VALUE, workBook.remainingCapacity());
     }
 
     @Test
@@ -876,4 +1055,215 @@ class WorkBookTests extends GlobalRestrictionsFileWrapper {
 
         assertFalse(workBook.getBlockedItems().contains(blocked));
     }
+
+    @Test
+    void testJobsMigratedToDatabase() throws WorkBook.NoWorkBookOnWorker, WorkBook.WorkBookFull, WorkBook.InvalidWorkBookInscription {
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
+        Item item1 = factory.createNewItem();
+        Item item2 = factory.createNewItem();
+        workBook.addJob(123, item1, 24.0f, false, 1);
+        workBook.addDonation(item2);
+        assert workBook.workBookItem.getItemCount() == 2;
+
+        storeJobsInDatabase();
+        WorkBook migrated = new WorkBook(workBook.workBookItem);
+        assertEquals(1, migrated.workBookItem.getItemCount());
+        assertEquals(1, migrated.todo());
+        assertEquals(1, migrated.donationsTodo());
+
+        WorkBook reloaded = new WorkBook(workBook.workBookItem);
+        assertTrue(reloaded.isJobItem(item1));
+        assertTrue(reloaded.isJobItem(item2));
+        assertEquals(1, reloaded.todo());
+        assertEquals(1, reloaded.donationsTodo());
+    }
+
+    @Test
+    void testDatabaseJobsUpdatedPerRow() throws WorkBook.NoWorkBookOnWorker, WorkBook.WorkBookFull, WorkBook.InvalidWorkBookInscription {
+        storeJobsInDatabase();
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(CrafterType.allMetal), 20);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
+        Item item1 = factory.createNewItem();
+        Item item2 = factory.createNewItem();
+        workBook.addJob(123, item1, 24.0f, false, 1);
+        workBook.addJob(123, item2, 25.0f, false, 1);
+
+        int writes = workBook.pageWrites;
+        workBook.setDone(workBook.iterator().next(), crafter);
+        workBook.removeJob(item2);
+
+        assertEquals(writes, workBook.pageWrites);
+        assertEquals(1, workBook.workBookItem.getItemCount());
+        WorkBook reloaded = new WorkBook(workBook.workBookItem);
+        assertEquals(1, reloaded.done());
+        assertEquals(0, reloaded.todo());
+        assertFalse(reloaded.isJobItem(item2));
+    }
+
+    @Test
+    void testDatabaseJobsMovedBackToPages() throws NoSuchFieldException, IllegalAccessException, WorkBook.NoWorkBookOnWorker, WorkBook.WorkBookFull, WorkBook.InvalidWorkBookInscription, SQLException {
+        storeJobsInDatabase();
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
+        Item item1 = factory.createNewItem();
+        Item item2 = factory.createNewItem();
+        workBook.addJob(123, item1, 24.0f, false, 1);
+        workBook.addDonation(item2);
+        assert workBook.workBookItem.getItemCount() == 1;
+
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("jobStorage"), CrafterMod.JobStorageOption.inscription);
+        WorkBook pages = new WorkBook(workBook.workBookItem);
+        assertEquals(2, pages.workBookItem.getItemCount());
+        assertEquals(1, pages.todo());
+        assertEquals(1, pages.donationsTodo());
+        assertFalse(CrafterDatabase.loadJobsFor(workBook.workBookItem.getWurmId(), (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) -> {}));
+
+        WorkBook reloaded = new WorkBook(workBook.workBookItem);
+        assertTrue(reloaded.isJobItem(item1));
+        assertTrue(reloaded.isJobItem(item2));
+    }
+
+    @Test
+    void testJobWrittenToPageIfDatabaseFails() throws NoSuchFieldException, IllegalAccessException, WorkBook.NoWorkBookOnWorker, WorkBook.WorkBookFull, WorkBook.InvalidWorkBookInscription {
+        storeJobsInDatabase();
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
+        Item item1 = factory.createNewItem();
+        Item item2 = factory.createNewItem();
+        workBook.addJob(123, item1, 24.0f, false, 1);
+
+        try {
+            ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("dbString"), "jdbc:sqlite:./missing/directory/crafter.db");
+            ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("created"), false);
+            workBook.addJob(123, item2, 25.0f, false, 1);
+            assertEquals(2, workBook.workBookItem.getItemCount());
+        } finally {
+            ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("dbString"), "");
+            ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("created"), false);
+        }
+
+        WorkBook reloaded = new WorkBook(workBook.workBookItem);
+        assertEquals(1, reloaded.workBookItem.getItemCount());
+        assertTrue(reloaded.isJobItem(item1));
+        assertTrue(reloaded.isJobItem(item2));
+        assertEquals(2, reloaded.todo());
+    }
+
+    @Test
+    void testStoredJobsRemoved() throws WorkBook.NoWorkBookOnWorker, WorkBook.WorkBookFull, SQLException {
+        storeJobsInDatabase();
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
+        workBook.addJob(123, factory.createNewItem(), 24.0f, false, 1);
+
+        workBook.removeStoredJobs();
+        AtomicInteger loaded = new AtomicInteger();
+        assertFalse(CrafterDatabase.loadJobsFor(workBook.workBookItem.getWurmId(), (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) -> loaded.incrementAndGet()));
+        assertEquals(0, loaded.get());
+    }
+
+    @Test
+    void testWriteBehindOnlyWritesOnFlush() throws NoSuchFieldException, IllegalAccessException, WorkBook.WorkBookFull {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("writeBehindWorkBooks"), true);
+        WorkBook workBook = createNewWorkbook(SkillList.SMITHING_BLACKSMITHING);
+        for (int i = 0; i < 20; ++i) {
+            workBook.addJob(123, factory.createNewItem(), 20, false, 1);
+        }
+        workBook.setDone(workBook.iterator().next(), factory.createNewCrafter(factory.createNewPlayer(), crafterType, 20));
+        workBook.updateBlockedItems(Collections.singletonList(ItemList.pickAxe));
+        assertEquals(0, workBook.pageWrites);
+
+        WorkBook.flushAll();
+        assertEquals(workBook.workBookItem.getItemCount(), workBook.pageWrites);
+        WorkBook.flushAll();
+        assertEquals(workBook.workBookItem.getItemCount(), workBook.pageWrites);
+
+        WorkBook reloaded = getWorkBookFromItem(workBook.workBookItem);
+        assertEquals(19, reloaded.todo());
+        assertEquals(1, reloaded.done());
+        assertTrue(reloaded.isBlockedItem(ItemList.pickAxe));
+    }
+
+    @Test
+    void testDestroyedWorkBookNotWrittenOnFlush() throws NoSuchFieldException, IllegalAccessException, WorkBook.WorkBookFull {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("writeBehindWorkBooks"), true);
+        WorkBook destroyed = createNewWorkbook(SkillList.SMITHING_BLACKSMITHING);
+        WorkBook discarded = createNewWorkbook(SkillList.SMITHING_BLACKSMITHING);
+        destroyed.addJob(123, factory.createNewItem(), 20, false, 1);
+        discarded.addJob(123, factory.createNewItem(), 20, false, 1);
+
+        Items.destroyItem(destroyed.workBookItem.getWurmId());
+        discarded.discardChanges();
+        WorkBook.flushAll();
+        assertEquals(0, destroyed.pageWrites);
+        assertEquals(0, discarded.pageWrites);
+    }
+
+    @Test
+    void testCompactPagesHoldMoreJobs() throws NoSuchFieldException, IllegalAccessException {
+        WorkBook text = createNewWorkbook(SkillList.SMITHING_BLACKSMITHING);
+        int textJobs = 0;
+        try {
+            while (true) {
+                text.addJob(123, factory.createNewItem(), 50, false, 100);
+                ++textJobs;
+            }
+        } catch (WorkBook.WorkBookFull ignored) {}
+
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("compactWorkBookPages"), true);
+        WorkBook compact = createNewWorkbook(SkillList.SMITHING_BLACKSMITHING);
+        int compactJobs = 0;
+        try {
+            while (true) {
+                compact.addJob(123, factory.createNewItem(), 50, false, 100);
+                ++compactJobs;
+            }
+        } catch (WorkBook.WorkBookFull ignored) {}
+
+        assertTrue(compactJobs > textJobs * 3, compactJobs + " vs " + textJobs);
+        WorkBook reloaded = getWorkBookFromItem(compact.workBookItem);
+        assertEquals(compactJobs, reloaded.todo());
+        Iterator<Job> original = compact.iterator();
+        for (Job job : reloaded) {
+            assertEquals(original.next().toString(), job.toString());
+        }
+    }
+
+    @Test
+    void testTextPagesUpgradedOnSave() throws NoSuchFieldException, IllegalAccessException, WorkBook.WorkBookFull {
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), crafterType, 20);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
+        Item item1 = factory.createNewItem();
+        Item item2 = factory.createNewItem();
+        workBook.addJob(123, item1, 30, false, 1);
+        workBook.addDonation(item2);
+        Item page1 = getOrCreatePageOne(workBook.workBookItem);
+        assert !PageEncoding.isCompact(Objects.requireNonNull(page1.getInscription()).getInscription());
+
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("compactWorkBookPages"), true);
+        WorkBook loaded = getWorkBookFromItem(workBook.workBookItem);
+        assertEquals(0, loaded.pageWrites);
+        loaded.setDone(loaded.iterator().next(), crafter);
+
+        assertTrue(PageEncoding.isCompact(Objects.requireNonNull(page1.getInscription()).getInscription()));
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("compactWorkBookPages"), false);
+        WorkBook reloaded = getWorkBookFromItem(workBook.workBookItem);
+        assertEquals(1, reloaded.done());
+        assertEquals(1, reloaded.donationsTodo());
+        assertTrue(reloaded.isJobItem(item1));
+        assertTrue(reloaded.isJobItem(item2));
+    }
+
+    @Test
+    void testUnknownPageVersionNotOverwritten() {
+        Item workBookItem = createBlankWorkbookItem();
+        workBookItem.getFirstContainedItem().setInscription(Joiner.on("\n").join(
+                "20", "-10", (Object[])crafterType.getAllTypes()), "");
+        Item page1 = getOrCreatePageOne(workBookItem);
+        page1.setInscription("~9ABCD", "");
+
+        assertThrows(WorkBook.InvalidWorkBookInscription.class, () -> new WorkBook(workBookItem));
+        assertEquals("~9ABCD", Objects.requireNonNull(page1.getInscription()).getInscription());
+    }
 }
@@ -0,0 +1,113 @@
+package mod.wurmunlimited.npcs.db;
+
+import com.wurmonline.server.Constants;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.skills.SkillList;
+import mod.wurmunlimited.Benchmark;
+import mod.wurmunlimited.CrafterObjectsFactory;
+import mod.wurmunlimited.npcs.CrafterMod;
+import mod.wurmunlimited.npcs.CrafterType;
+import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+@Tag("benchmark")
+class CrafterDatabaseBenchmarks {
+    private static final int warmUp = 200;
+    private static final int iterations = 2_000;
+    private final String dbString = "jdbc:sqlite:./sqlite/" + CrafterMod.dbName;
+    private Creature crafter;
+    private Item tool;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        CrafterObjectsFactory factory = new CrafterObjectsFactory();
+        Constants.dbHost = ".";
+        crafter = factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
+        tool = factory.createNewItem();
+        // Creates the tables.
+        CrafterDatabase.getGivenToolsFor(crafter);
+    }
+
+    @AfterEach
+    void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        CrafterDatabase.close();
+        for (String suffix : new String[] { "", "-wal", "-shm" }) {
+            File file = new File("./sqlite/" + CrafterMod.dbName + suffix);
+            if (file.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("created"), false);
+    }
+
+    // The previous behaviour, a new connection for every call.
+    @SuppressWarnings("SqlResolve")
+    private Object addAndRemoveWithNewConnections() {
+        try {
+            try (Connection db = DriverManager.getConnection(dbString);
+                 PreparedStatement ps = db.prepareStatement("INSERT INTO donated_tools VALUES(?, ?);")) {
+                ps.setLong(1, crafter.getWurmId());
+                ps.setLong(2, tool.getWurmId());
+                ps.executeUpdate();
+            }
+            try (Connection db = DriverManager.getConnection(dbString);
+                 PreparedStatement ps = db.prepareStatement("DELETE FROM donated_tools WHERE crafter_id=? AND item_id=?;")) {
+                ps.setLong(1, crafter.getWurmId());
+                ps.setLong(2, tool.getWurmId());
+                ps.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    private Object addAndRemove() {
+        try {
+            CrafterDatabase.addGivenToolFor(crafter, tool);
+            CrafterDatabase.removeGivenToolFor(crafter, tool);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    @Test
+    void benchmarkGivenToolWrites() {
+        Benchmark.compare("addGivenToolFor() + removeGivenToolFor()", warmUp, iterations,
+                this::addAndRemoveWithNewConnections,
+                this::addAndRemove);
+    }
+
+    @Test
+    void benchmarkGivenToolReads() {
+        Benchmark.compare("getGivenToolsFor()", warmUp, iterations,
+                () -> {
+                    try (Connection db = DriverManager.getConnection(dbString);
+                         PreparedStatement ps = db.prepareStatement("SELECT item_id FROM donated_tools WHERE crafter_id=?;")) {
+                        ps.setLong(1, crafter.getWurmId());
+                        return ps.executeQuery().next();
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                },
+                () -> {
+                    try {
+                        return CrafterDatabase.getGivenToolsFor(crafter);
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+    }
+}
@@ -0,0 +1,331 @@
+package mod.wurmunlimited.npcs.db;
+
+import com.wurmonline.server.Constants;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.skills.SkillList;
+import mod.wurmunlimited.CrafterObjectsFactory;
+import mod.wurmunlimited.npcs.CrafterMod;
+import mod.wurmunlimited.npcs.CrafterType;
+import mod.wurmunlimited.npcs.Job;
+import mod.wurmunlimited.npcs.WorkBook;
+import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrafterDatabaseTests {
+    private CrafterObjectsFactory factory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        factory = new CrafterObjectsFactory();
+        Constants.dbHost = ".";
+    }
+
+    @AfterEach
+    void tearDown() throws NoSuchFieldException, IllegalAccessException {
+        CrafterDatabase.close();
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("asyncDatabaseWrites"), false);
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("recordJobEvents"), false);
+        CrafterDatabase.clock = Clock.systemUTC();
+        File file = new File("./sqlite/" + CrafterMod.dbName);
+        if (file.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("created"), false);
+    }
+
+    private Creature createCrafterWithSkill(double knowledge) {
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(SkillList.SMITHING_BLACKSMITHING), 100);
+        crafter.getSkills().getSkillOrLearn(SkillList.SMITHING_BLACKSMITHING).setKnowledge(knowledge, false);
+        return crafter;
+    }
+
+    @Test
+    void testSaveAndLoadSkillsForAll() throws CrafterDatabase.FailedToSaveSkills, SQLException {
+        Map<Creature, Item> writs = new HashMap<>();
+        List<Item> contracts = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            Item contract = factory.createNewItem(CrafterMod.getContractTemplateId());
+            writs.put(createCrafterWithSkill(50 + i), contract);
+            contracts.add(contract);
+        }
+        Item noSkills = factory.createNewItem(CrafterMod.getContractTemplateId());
+        contracts.add(noSkills);
+
+        CrafterDatabase.saveSkillsForAll(writs);
+        Map<Long, Map<Integer, Double>> skills = CrafterDatabase.loadSkillsForAll(contracts);
+
+        assertEquals(10, skills.size());
+        for (Map.Entry<Creature, Item> writ : writs.entrySet()) {
+            Map<Integer, Double> saved = skills.get(writ.getValue().getWurmId());
+            assertEquals(writ.getKey().getSkills().getSkillTree().size(), saved.size());
+            assertEquals(writ.getKey().getSkills().getSkillOrLearn(SkillList.SMITHING_BLACKSMITHING).getKnowledge(), saved.get(SkillList.SMITHING_BLACKSMITHING));
+        }
+        assertFalse(skills.containsKey(noSkills.getWurmId()));
+        assertTrue(CrafterDatabase.loadSkillsFor(noSkills).isEmpty());
+    }
+
+    @Test
+    void testLoadSkillsForAllMoreContractsThanOneQuery() throws SQLException {
+        Creature crafter = createCrafterWithSkill(75);
+        List<Item> contracts = new ArrayList<>();
+        for (int i = 0; i < 1200; ++i) {
+            contracts.add(factory.createNewItem(CrafterMod.getContractTemplateId()));
+        }
+        Item last = contracts.get(contracts.size() - 1);
+        CrafterDatabase.saveSkillsFor(crafter, last);
+
+        Map<Long, Map<Integer, Double>> skills = CrafterDatabase.loadSkillsForAll(contracts);
+
+        assertEquals(1, skills.size());
+        assertEquals(75, skills.get(last.getWurmId()).get(SkillList.SMITHING_BLACKSMITHING), 0.001);
+    }
+
+    @Test
+    void testSaveSkillsReplacesPrevious() throws SQLException {
+        Item contract = factory.createNewItem(CrafterMod.getContractTemplateId());
+        CrafterDatabase.saveSkillsFor(createCrafterWithSkill(30), contract);
+        CrafterDatabase.saveSkillsFor(createCrafterWithSkill(60), contract);
+
+        assertEquals(60, CrafterDatabase.loadSkillsFor(contract).get(SkillList.SMITHING_BLACKSMITHING), 0.001);
+    }
+
+    @SuppressWarnings("SqlResolve")
+    @Test
+    void testSavedSkillsWaitForServerPoll() throws SQLException {
+        Item contract1 = factory.createNewItem(CrafterMod.getContractTemplateId());
+        Item contract2 = factory.createNewItem(CrafterMod.getContractTemplateId());
+        CrafterDatabase.saveSkillsFor(createCrafterWithSkill(30), contract1);
+        CrafterDatabase.saveSkillsFor(createCrafterWithSkill(45), contract2);
+
+        assertEquals(30, CrafterDatabase.loadSkillsFor(contract1).get(SkillList.SMITHING_BLACKSMITHING), 0.001);
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:./sqlite/" + CrafterMod.dbName);
+             PreparedStatement ps = db.prepareStatement("SELECT COUNT(DISTINCT contract_id) FROM saved_skills;")) {
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+        }
+
+        CrafterDatabase.writeWaitingSkills();
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:./sqlite/" + CrafterMod.dbName);
+             PreparedStatement ps = db.prepareStatement("SELECT COUNT(DISTINCT contract_id) FROM saved_skills;")) {
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+        }
+        assertEquals(45, CrafterDatabase.loadSkillsFor(contract2).get(SkillList.SMITHING_BLACKSMITHING), 0.001);
+    }
+
+    @Test
+    void testQueuedWritesReadBeforeCommitted() throws Exception {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("asyncDatabaseWrites"), true);
+        Creature crafter = createCrafterWithSkill(40);
+        Item tool1 = factory.createNewItem();
+        Item tool2 = factory.createNewItem();
+        Item contract = factory.createNewItem(CrafterMod.getContractTemplateId());
+
+        CrafterDatabase.addGivenToolFor(crafter, tool1);
+        CrafterDatabase.addGivenToolFor(crafter, tool2);
+        CrafterDatabase.removeGivenToolFor(crafter, tool1);
+        CrafterDatabase.saveSkillsFor(crafter, contract);
+
+        assertEquals(Collections.singleton(tool2.getWurmId()), CrafterDatabase.getGivenToolsFor(crafter));
+        assertEquals(40, CrafterDatabase.loadSkillsFor(contract).get(SkillList.SMITHING_BLACKSMITHING), 0.001);
+
+        CrafterDatabase.close();
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("asyncDatabaseWrites"), false);
+
+        assertEquals(Collections.singleton(tool2.getWurmId()), CrafterDatabase.getGivenToolsFor(crafter));
+        assertEquals(40, CrafterDatabase.loadSkillsFor(contract).get(SkillList.SMITHING_BLACKSMITHING), 0.001);
+    }
+
+    @SuppressWarnings("SqlResolve")
+    @Test
+    void testGivenToolsPreloadedForAllCrafters() throws SQLException {
+        Creature crafter1 = createCrafterWithSkill(20);
+        Creature crafter2 = createCrafterWithSkill(20);
+        Creature noTools = createCrafterWithSkill(20);
+        Item tool1 = factory.createNewItem();
+        Item tool2 = factory.createNewItem();
+        Item tool3 = factory.createNewItem();
+        // Creates the tables.
+        CrafterDatabase.getGivenToolsFor(crafter1);
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:./sqlite/" + CrafterMod.dbName);
+             PreparedStatement ps = db.prepareStatement("INSERT INTO donated_tools VALUES(?, ?);")) {
+            ps.setLong(1, crafter1.getWurmId());
+            ps.setLong(2, tool1.getWurmId());
+            ps.addBatch();
+            ps.setLong(1, crafter1.getWurmId());
+            ps.setLong(2, tool2.getWurmId());
+            ps.addBatch();
+            ps.setLong(1, crafter2.getWurmId());
+            ps.setLong(2, tool3.getWurmId());
+            ps.addBatch();
+            ps.executeBatch();
+        }
+        // Drop the tools read by the first lookup, as if the server had just started.
+        CrafterDatabase.close();
+        ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("givenTools"), null);
+
+        CrafterDatabase.preloadGivenTools();
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:./sqlite/" + CrafterMod.dbName);
+             PreparedStatement ps = db.prepareStatement("DELETE FROM donated_tools;")) {
+            ps.executeUpdate();
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(tool1.getWurmId(), tool2.getWurmId())), CrafterDatabase.getGivenToolsFor(crafter1));
+        assertEquals(Collections.singleton(tool3.getWurmId()), CrafterDatabase.getGivenToolsFor(crafter2));
+        assertTrue(CrafterDatabase.getGivenToolsFor(noTools).isEmpty());
+
+        CrafterDatabase.addGivenToolFor(noTools, tool2);
+        CrafterDatabase.removeGivenToolFor(crafter1, tool2);
+        assertEquals(Collections.singleton(tool1.getWurmId()), CrafterDatabase.getGivenToolsFor(crafter1));
+        assertEquals(Collections.singleton(tool2.getWurmId()), CrafterDatabase.getGivenToolsFor(noTools));
+    }
+
+    @Test
+    void testMigratedWorkBooksKeptUpToDate() throws SQLException {
+        assertFalse(CrafterDatabase.isMigrated(1));
+
+        CrafterDatabase.migrateJobsFor(1, Collections.emptyList());
+        assertTrue(CrafterDatabase.isMigrated(1));
+        assertFalse(CrafterDatabase.isMigrated(2));
+
+        CrafterDatabase.removeJobsFor(1);
+        assertFalse(CrafterDatabase.isMigrated(1));
+        assertFalse(CrafterDatabase.loadJobsFor(1, (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) -> fail()));
+    }
+
+    @SuppressWarnings("SqlResolve")
+    private int countJobEvents() throws SQLException {
+        // Creates the tables if no events have been written yet.
+        CrafterDatabase.getJobRollups(0, 0);
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:./sqlite/" + CrafterMod.dbName);
+             PreparedStatement ps = db.prepareStatement("SELECT COUNT(*) FROM job_events;")) {
+            ResultSet rs = ps.executeQuery();
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    void testQueuedJobChangesLoadedInOrderBeforeCommitted() throws Exception {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("asyncDatabaseWrites"), true);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(createCrafterWithSkill(50));
+        Job job1 = workBook.addJob(1, factory.createNewItem(), 50, false, 100);
+        Job job2 = workBook.addJob(2, factory.createNewItem(), 50, false, 300);
+
+        CrafterDatabase.migrateJobsFor(10, Arrays.asList(job1, job2));
+        CrafterDatabase.removeJob(10, job1.getItemId());
+        CrafterDatabase.addJob(10, job1);
+        ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("migratedWorkBooks"), null);
+
+        List<Long> loaded = new ArrayList<>();
+        assertTrue(CrafterDatabase.loadJobsFor(10, (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) -> loaded.add(itemId)));
+        assertEquals(Arrays.asList(job2.getItemId(), job1.getItemId()), loaded);
+
+        CrafterDatabase.close();
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("asyncDatabaseWrites"), false);
+        loaded.clear();
+
+        assertTrue(CrafterDatabase.loadJobsFor(10, (customerId, itemId, targetQL, mailWhenDone, priceCharged, done, donation) -> loaded.add(itemId)));
+        assertEquals(Arrays.asList(job2.getItemId(), job1.getItemId()), loaded);
+    }
+
+    @Test
+    void testJobEventsWrittenInBatchesAndRolledUp() throws Exception {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("recordJobEvents"), true);
+        long hour = 1000 * 3600000L;
+        Creature crafter = createCrafterWithSkill(50);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
+        Item item1 = factory.createNewItem();
+        Item item2 = factory.createNewItem();
+        Job job1 = workBook.addJob(1, item1, 50, false, 100);
+        Job job2 = workBook.addJob(2, item2, 50, true, 300);
+
+        CrafterDatabase.clock = Clock.fixed(Instant.ofEpochMilli(hour + 600000L), ZoneOffset.UTC);
+        CrafterDatabase.recordJobEvent(JobEvent.accepted, crafter, job1);
+        CrafterDatabase.recordJobEvent(JobEvent.accepted, crafter, job2);
+        // Not yet waited long enough to be written.
+        CrafterDatabase.writeWaitingJobEvents();
+        assertEquals(0, countJobEvents());
+        CrafterDatabase.clock = Clock.fixed(Instant.ofEpochMilli(hour + 600000L + 1200000L), ZoneOffset.UTC);
+        CrafterDatabase.recordJobEvent(JobEvent.first_improve, crafter, job1);
+        CrafterDatabase.recordJobEvent(JobEvent.done, crafter, job1);
+        CrafterDatabase.clock = Clock.fixed(Instant.ofEpochMilli(hour + 600000L + 2400000L), ZoneOffset.UTC);
+        CrafterDatabase.recordJobEvent(JobEvent.done, crafter, job2);
+        CrafterDatabase.recordJobEvent(JobEvent.mailed, crafter, job2);
+
+        CrafterDatabase.clock = Clock.fixed(Instant.ofEpochMilli(hour + 7200000L), ZoneOffset.UTC);
+        CrafterDatabase.writeWaitingJobEvents();
+        List<CrafterDatabase.JobRollup> rollups = CrafterDatabase.getJobRollups(hour, hour + 3600000L);
+
+        assertEquals(1, rollups.size());
+        CrafterDatabase.JobRollup rollup = rollups.get(0);
+        assertEquals(hour, rollup.hour);
+        assertEquals(crafter.getWurmId(), rollup.crafterId);
+        assertEquals(CrafterType.getNearestSkill(item1), rollup.skillId);
+        assertEquals(2, rollup.jobsCompleted);
+        assertEquals(400, rollup.coinsEarned);
+        assertEquals(1800000L, rollup.getMeanTimeToDone());
+        assertEquals(6, countJobEvents());
+    }
+
+    @Test
+    void testJobRollupsAddedToByEachBatch() throws Exception {
+        ReflectionUtil.setPrivateField(null, CrafterMod.class.getDeclaredField("recordJobEvents"), true);
+        long hour = 1000 * 3600000L;
+        Creature crafter = createCrafterWithSkill(50);
+        WorkBook workBook = WorkBook.getWorkBookFromWorker(crafter);
+        Job job1 = workBook.addJob(1, factory.createNewItem(), 50, false, 100);
+        Job job2 = workBook.addJob(2, factory.createNewItem(), 50, false, 300);
+
+        CrafterDatabase.clock = Clock.fixed(Instant.ofEpochMilli(hour), ZoneOffset.UTC);
+        CrafterDatabase.recordJobEvent(JobEvent.accepted, crafter, job1);
+        CrafterDatabase.recordJobEvent(JobEvent.accepted, crafter, job2);
+        CrafterDatabase.clock = Clock.fixed(Instant.ofEpochMilli(hour + 600000L), ZoneOffset.UTC);
+        CrafterDatabase.recordJobEvent(JobEvent.done, crafter, job1);
+        CrafterDatabase.clock = Clock.fixed(Instant.ofEpochMilli(hour + 700000L), ZoneOffset.UTC);
+        CrafterDatabase.writeWaitingJobEvents();
+        assertEquals(1, CrafterDatabase.getJobRollups(hour, hour + 3600000L).get(0).jobsCompleted);
+
+        CrafterDatabase.clock = Clock.fixed(Instant.ofEpochMilli(hour + 1300000L), ZoneOffset.UTC);
+        CrafterDatabase.recordJobEvent(JobEvent.done, crafter, job2);
+        CrafterDatabase.clock = Clock.fixed(Instant.ofEpochMilli(hour + 1400000L), ZoneOffset.UTC);
+        CrafterDatabase.writeWaitingJobEvents();
+        List<CrafterDatabase.JobRollup> rollups = CrafterDatabase.getJobRollups(hour, hour + 3600000L);
+
+        assertEquals(1, rollups.size());
+        CrafterDatabase.JobRollup rollup = rollups.get(0);
+        assertEquals(2, rollup.jobsCompleted);
+        assertEquals(400, rollup.coinsEarned);
+        assertEquals(950000L, rollup.getMeanTimeToDone());
+    }
+
+    @Test
+    void testJobEventsNotRecordedByDefault() throws Exception {
+        Creature crafter = createCrafterWithSkill(50);
+        Job job = WorkBook.getWorkBookFromWorker(crafter).addJob(1, factory.createNewItem(), 50, false, 100);
+
+        CrafterDatabase.recordJobEvent(JobEvent.done, crafter, job);
+        CrafterDatabase.flush();
+
+        assertTrue(CrafterDatabase.getJobRollups(0, Long.MAX_VALUE).isEmpty());
+    }
+}
@@ -0,0 +1,183 @@
+package mod.wurmunlimited.npcs.db;
+
+import com.wurmonline.server.Constants;
+import com.wurmonline.server.creatures.Creature;
+import com.wurmonline.server.items.Item;
+import com.wurmonline.server.skills.SkillList;
+import mod.wurmunlimited.CrafterObjectsFactory;
+import mod.wurmunlimited.npcs.CrafterMod;
+import mod.wurmunlimited.npcs.CrafterType;
+import org.gotti.wurmunlimited.modloader.ReflectionUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MigrationsTests {
+    private Path folder;
+    private Connection db;
+    private String oldDbHost;
+
+    @BeforeEach
+    void setUp() throws IOException, SQLException {
+        folder = Files.createTempDirectory("crafter");
+        Files.createDirectory(folder.resolve("sqlite"));
+        db = DriverManager.getConnection("jdbc:sqlite:" + folder.resolve("sqlite").resolve(CrafterMod.dbName));
+        oldDbHost = Constants.dbHost;
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException, NoSuchFieldException, IllegalAccessException {
+        db.close();
+        CrafterDatabase.close();
+        Constants.dbHost = oldDbHost;
+        ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("dbString"), "");
+        ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("created"), false);
+        File[] files = folder.resolve("sqlite").toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        folder.resolve("sqlite").toFile().delete();
+        //noinspection ResultOfMethodCallIgnored
+        folder.toFile().delete();
+    }
+
+    private Set<String> getNames(String type) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (PreparedStatement ps = db.prepareStatement("SELECT name FROM sqlite_master WHERE type=?;")) {
+            ps.setString(1, type);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
+        }
+        return names;
+    }
+
+    @Test
+    void testNewDatabaseAtLatestVersion() throws SQLException {
+        Migrations.migrate(db, Migrations.all);
+
+        assertEquals(Migrations.all.size(), Migrations.getVersion(db));
+        assertTrue(getNames("table").containsAll(Arrays.asList("schema_version", "saved_skills", "donated_tools", "jobs", "migrated_work_books")));
+        Set<String> indexes = getNames("index");
+        assertFalse(indexes.contains("saved_skills_contract_id"));
+        assertFalse(indexes.contains("donated_tools_crafter_id"));
+        assertFalse(indexes.contains("jobs_work_book_id"));
+    }
+
+    @Test
+    void testSingleColumnIndexesDropped() throws SQLException {
+        Migrations.migrate(db, Migrations.all.subList(0, 3));
+        try (Statement statement = db.createStatement()) {
+            statement.execute("CREATE INDEX jobs_work_book_id ON jobs (work_book_id);");
+            statement.execute("CREATE INDEX saved_skills_contract_id ON saved_skills (contract_id);");
+            statement.execute("CREATE INDEX donated_tools_crafter_id ON donated_tools (crafter_id);");
+        }
+
+        Migrations.migrate(db, Migrations.all);
+
+        Set<String> indexes = getNames("index");
+        assertFalse(indexes.contains("saved_skills_contract_id"));
+        assertFalse(indexes.contains("donated_tools_crafter_id"));
+        assertFalse(indexes.contains("jobs_work_book_id"));
+    }
+
+    @SuppressWarnings("SqlResolve")
+    @Test
+    void testDatabaseFromBeforeVersioningKeepsData() throws SQLException {
+        try (Statement statement = db.createStatement()) {
+            statement.execute("CREATE TABLE saved_skills (contract_id INTEGER, skill_id INTEGER, skill_level REAL, UNIQUE (contract_id, skill_id) ON CONFLICT REPLACE);");
+            statement.execute("CREATE TABLE donated_tools (crafter_id INTEGER, item_id INTEGER, UNIQUE (crafter_id, item_id) ON CONFLICT REPLACE);");
+            statement.execute("INSERT INTO saved_skills VALUES (1, 2, 3.0);");
+            statement.execute("INSERT INTO donated_tools VALUES (4, 5);");
+        }
+
+        Migrations.migrate(db, Migrations.all);
+
+        assertEquals(Migrations.all.size(), Migrations.getVersion(db));
+        try (Statement statement = db.createStatement()) {
+            ResultSet rs = statement.executeQuery("SELECT contract_id, skill_id, skill_level FROM saved_skills;");
+            assertTrue(rs.next());
+            assertEquals(1, rs.getLong(1));
+            assertEquals(3.0, rs.getDouble(3));
+            rs = statement.executeQuery("SELECT crafter_id, item_id FROM donated_tools;");
+            assertTrue(rs.next());
+            assertEquals(5, rs.getLong(2));
+        }
+    }
+
+    @Test
+    void testOnlyNewMigrationsApplied() throws SQLException {
+        List<String> applied = new ArrayList<>();
+        List<Migrations.Migration> migrations = new ArrayList<>();
+        migrations.add(statement -> applied.add("first"));
+        Migrations.migrate(db, migrations);
+
+        migrations.add(statement -> applied.add("second"));
+        Migrations.migrate(db, migrations);
+        Migrations.migrate(db, migrations);
+
+        assertEquals(Arrays.asList("first", "second"), applied);
+        assertEquals(2, Migrations.getVersion(db));
+    }
+
+    @Test
+    void testFailedMigrationRolledBack() throws SQLException {
+        List<Migrations.Migration> migrations = Arrays.asList(
+                statement -> statement.execute("CREATE TABLE first (id INTEGER);"),
+                statement -> {
+                    statement.execute("CREATE TABLE second (id INTEGER);");
+                    statement.execute("NOT SQL;");
+                }
+        );
+
+        assertThrows(SQLException.class, () -> Migrations.migrate(db, migrations));
+
+        assertEquals(1, Migrations.getVersion(db));
+        assertTrue(getNames("table").contains("first"));
+        assertFalse(getNames("table").contains("second"));
+        assertTrue(db.getAutoCommit());
+    }
+
+    @Test
+    void testNewerDatabaseLeftAlone() throws SQLException {
+        Migrations.migrate(db, Migrations.all);
+        List<Migrations.Migration> older = Migrations.all.subList(0, 1);
+
+        assertDoesNotThrow(() -> Migrations.migrate(db, older));
+        assertEquals(Migrations.all.size(), Migrations.getVersion(db));
+    }
+
+    @Test
+    void testCrafterDatabaseMigratedOnFirstUse() throws SQLException, NoSuchFieldException, IllegalAccessException {
+        Constants.dbHost = folder.toString();
+        ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("dbString"), "");
+        ReflectionUtil.setPrivateField(null, CrafterDatabase.class.getDeclaredField("created"), false);
+        CrafterObjectsFactory factory;
+        try {
+            factory = new CrafterObjectsFactory();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        Creature crafter = factory.createNewCrafter(factory.createNewPlayer(), new CrafterType(SkillList.SMITHING_BLACKSMITHING), 20);
+        Item tool = factory.createNewItem();
+
+        CrafterDatabase.addGivenToolFor(crafter, tool);
+
+        assertEquals(Migrations.all.size(), Migrations.getVersion(db));
+        assertEquals(Collections.singleton(tool.getWurmId()), CrafterDatabase.getGivenToolsFor(crafter));
+    }
+}
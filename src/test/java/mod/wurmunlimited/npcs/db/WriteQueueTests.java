@@ -0,0 +1,118 @@
+package mod.wurmunlimited.npcs.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteQueueTests {
+    private static class Recorded implements WriteQueue.Write {
+        private final String value;
+
+        private Recorded(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public void run(java.sql.Connection db) {}
+    }
+
+    @Test
+    void testWritesCoalescedWhilstWriterBusy() throws InterruptedException {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        WriteQueue queue = new WriteQueue(100, batch -> {
+            started.countDown();
+            try {
+                assertTrue(stalled.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            List<String> values = new ArrayList<>();
+            batch.forEach(write -> values.add(((Recorded)write).value));
+            batches.add(values);
+        });
+
+        queue.add("a", new Recorded("a1"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // Writer is stuck on the first batch, adding must not wait for it.
+        long start = System.nanoTime();
+        queue.add("b", new Recorded("b1"));
+        queue.add("a", new Recorded("a2"));
+        queue.add("b", new Recorded("b2"));
+        queue.add("c", new Recorded("c1"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        List<String> unwritten = new ArrayList<>();
+        queue.forEachUnwritten((key, write) -> unwritten.add(((Recorded)write).value));
+        assertEquals(4, queue.size());
+        assertEquals(4, unwritten.size());
+        assertEquals("a1", unwritten.get(0));
+
+        stalled.countDown();
+        queue.flush();
+
+        assertEquals(0, queue.size());
+        assertEquals(2, batches.size());
+        assertEquals(Collections.singletonList("a1"), batches.get(0));
+        assertEquals(3, batches.get(1).size());
+        assertTrue(batches.get(1).containsAll(java.util.Arrays.asList("a2", "b2", "c1")));
+        queue.shutdown();
+    }
+
+    @Test
+    void testShutdownWritesEverything() {
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        WriteQueue queue = new WriteQueue(100, batch -> batch.forEach(write -> written.add(((Recorded)write).value)));
+        for (int i = 0; i < 50; ++i) {
+            queue.add(i, new Recorded(Integer.toString(i)));
+        }
+
+        queue.shutdown();
+
+        assertEquals(50, written.size());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void testFailedBatchDoesNotStopWriter() {
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        WriteQueue queue = new WriteQueue(100, batch -> {
+            for (WriteQueue.Write write : batch) {
+                if (((Recorded)write).value.equals("fail"))
+                    throw new java.sql.SQLException("Disk full");
+                written.add(((Recorded)write).value);
+            }
+        });
+
+        queue.add(1, new Recorded("fail"));
+        queue.flush();
+        queue.add(2, new Recorded("ok"));
+        queue.shutdown();
+
+        assertEquals(Collections.singletonList("ok"), written);
+    }
+
+    @Test
+    void testUnwrittenNotReadIfBatchFinishedSince() {
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        WriteQueue queue = new WriteQueue(100, batch -> batch.forEach(write -> written.add(((Recorded)write).value)));
+        long before = queue.batchesWritten();
+
+        queue.add(1, new Recorded("a"));
+        queue.flush();
+
+        List<String> unwritten = new ArrayList<>();
+        assertFalse(queue.forEachUnwritten(before, (key, write) -> unwritten.add(((Recorded)write).value)));
+        assertTrue(queue.forEachUnwritten(queue.batchesWritten(), (key, write) -> unwritten.add(((Recorded)write).value)));
+        assertTrue(unwritten.isEmpty());
+        assertEquals(Collections.singletonList("a"), written);
+        queue.shutdown();
+    }
+}